@@ -0,0 +1,41 @@
+package p6_undo_redo;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, such as a memory mapped file
+ */
+class ByteBufferInputStream extends InputStream
+{
+	private ByteBuffer buf;
+
+	ByteBufferInputStream(ByteBuffer buf)
+	{
+		this.buf = buf;
+	}
+
+	@Override
+	public int read()
+	{
+		return this.buf.hasRemaining() ? (this.buf.get() & 0xff) : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+	{
+		if (len == 0)
+			return 0;
+		if (!this.buf.hasRemaining())
+			return -1;
+		len = Math.min(len, this.buf.remaining());
+		this.buf.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public int available()
+	{
+		return this.buf.remaining();
+	}
+}
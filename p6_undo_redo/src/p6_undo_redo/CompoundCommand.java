@@ -0,0 +1,58 @@
+package p6_undo_redo;
+
+import java.util.ArrayList;
+
+/**
+ * A group of commands that are done and undone as one step.
+ * Listeners hear about the whole group once, through NetworkListener.networkChanged().
+ */
+public class CompoundCommand implements NetworkCommand 
+{
+	private ArrayList<NetworkCommand> commands = new ArrayList<NetworkCommand>();
+	private NetworkModel networkModel;
+	
+	public CompoundCommand(NetworkModel networkModel)
+	{
+		this.networkModel = networkModel;
+	}
+	
+	public void add(NetworkCommand c)
+	{
+		this.commands.add(c);
+	}
+	
+	public int size()
+	{
+		return this.commands.size();
+	}
+	
+	public NetworkCommand get(int i)
+	{
+		return this.commands.get(i);
+	}
+
+	@Override
+	public void doit() 
+	{
+		this.networkModel.suspendNotifications();
+		try {
+			for (int i=0; i<commands.size(); i++)
+				commands.get(i).doit();
+		} finally {
+			this.networkModel.resumeNotifications();
+		}
+	}
+
+	@Override
+	public void undo() 
+	{
+		this.networkModel.suspendNotifications();
+		try {
+			for (int i=commands.size()-1; i>=0; i--)
+				commands.get(i).undo();
+		} finally {
+			this.networkModel.resumeNotifications();
+		}
+	}
+
+}
@@ -0,0 +1,428 @@
+package p6_undo_redo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Column storage for the connections of a NetworkModel.
+ *
+ * Each connection is two int node ids and one byte holding both sides, kept in
+ * connection order.  The store also keeps, for every node id, the ids of the
+ * connections attached to it.  NetworkConnection objects are only created when a
+ * caller asks for one, and then read through to the columns.
+ *
+ * A removed connection's place is taken by the last one, so removing costs the
+ * same however many connections there are.  Connection order is therefore the
+ * order connections were added in only until one is removed.
+ *
+ * The columns can be shared with a snapshot, as Columns, and are copied before
+ * anything the snapshot reads is changed, as NodeStore's are.
+ */
+class ConnectionStore
+{
+	private NetworkModel networkModel;
+
+	//Indexed by position in connection order
+	private int size;
+	private int[] ends1 = new int[16];
+	private int[] ends2 = new int[16];
+	private byte[] sides = new byte[16];
+	private int[] ids = new int[16];
+
+	//True while the columns are shared with a snapshot
+	private boolean shared;
+
+	//Indexed by connection id: the position, and where the id is in the incident
+	//lists of the first and second nodes
+	private int nextId;
+	private int[] positions = new int[16];
+	private int[] slots1 = new int[16];
+	private int[] slots2 = new int[16];
+	private HashMap<Integer, NetworkConnection> views = new HashMap<Integer, NetworkConnection>();
+
+	//Indexed by node id: the ids of the connections attached to the node, in no
+	//particular order.  A removed id's place is taken by the last one.
+	private int[][] incident = new int[16][];
+	private int[] degree = new int[16];
+
+	/**
+	 * The connections as they were when shared.  Nothing here is changed afterwards.
+	 */
+	static class Columns
+	{
+		final int size;
+		final int[] ends1;
+		final int[] ends2;
+		final byte[] sides;
+
+		private Columns(ConnectionStore store)
+		{
+			this.size = store.size;
+			this.ends1 = store.ends1;
+			this.ends2 = store.ends2;
+			this.sides = store.sides;
+		}
+	}
+
+	ConnectionStore(NetworkModel networkModel)
+	{
+		this.networkModel = networkModel;
+	}
+
+	static byte packSides(Side s1, Side s2)
+	{
+		return (byte) ((s1.ordinal() << 2) | s2.ordinal());
+	}
+
+	static Side unpackSide1(byte packed)
+	{
+		return Side.values()[(packed >> 2) & 3];
+	}
+
+	static Side unpackSide2(byte packed)
+	{
+		return Side.values()[packed & 3];
+	}
+
+	/**
+	 * @return the number of connections in the store
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Appends a connection.
+	 * @param node1 the id of the first node, or -1 if it is not bound
+	 * @param node2 the id of the second node, or -1 if it is not bound
+	 * @param wantedId the connection id to reuse if it is free; -1 for a new id
+	 * @return the id of the connection
+	 */
+	public int add(int node1, Side side1, int node2, Side side2, int wantedId)
+	{
+		int id = wantedId;
+		if (id < 0 || id >= this.nextId || this.positions[id] >= 0)
+		{
+			id = this.nextId++;
+			if (id >= this.positions.length)
+			{
+				int old = this.positions.length;
+				this.positions = Arrays.copyOf(this.positions, old*2);
+				Arrays.fill(this.positions, old, old*2, -1);
+				this.slots1 = Arrays.copyOf(this.slots1, old*2);
+				this.slots2 = Arrays.copyOf(this.slots2, old*2);
+			}
+		}
+
+		int pos = this.size++;
+		if (pos >= this.ends1.length)
+		{
+			int length = this.ends1.length*2;
+			this.ends1 = Arrays.copyOf(this.ends1, length);
+			this.ends2 = Arrays.copyOf(this.ends2, length);
+			this.sides = Arrays.copyOf(this.sides, length);
+			this.ids = Arrays.copyOf(this.ids, length);
+		}
+		this.ends1[pos] = node1;
+		this.ends2[pos] = node2;
+		this.sides[pos] = packSides(side1, side2);
+		this.ids[pos] = id;
+		this.positions[id] = pos;
+		indexEnds(id, node1, node2);
+		return id;
+	}
+
+	/**
+	 * Removes the connection at pos, moving the last connection into its place.
+	 * A NetworkConnection viewing it is detached and keeps a copy of the connection.
+	 */
+	public void remove(int pos)
+	{
+		remove(pos, -1);
+	}
+
+	/**
+	 * @param clearedNode a node whose incident list has already been emptied, or -1
+	 */
+	private void remove(int pos, int clearedNode)
+	{
+		checkPosition(pos);
+		unshare();
+		detach(pos, clearedNode);
+		int last = --this.size;
+		if (pos != last)
+		{
+			this.ends1[pos] = this.ends1[last];
+			this.ends2[pos] = this.ends2[last];
+			this.sides[pos] = this.sides[last];
+			this.ids[pos] = this.ids[last];
+			this.positions[this.ids[pos]] = pos;
+		}
+	}
+
+	/**
+	 * Removes every connection attached to node id, so the cost depends only on how
+	 * many there are.  The node's incident list is emptied at once.  The connections
+	 * are removed from the last position to the first, so where the rest end up
+	 * depends only on where the removed ones were, and not on the order of the list.
+	 */
+	public void removeIncident(int nodeId)
+	{
+		int d = degree(nodeId);
+		if (d == 0)
+			return;
+		int[] doomedPositions = new int[d];
+		for (int i=0; i<d; i++)
+			doomedPositions[i] = this.positions[this.incident[nodeId][i]];
+		this.incident[nodeId] = null;
+		this.degree[nodeId] = 0;
+		Arrays.sort(doomedPositions);
+		for (int i=d-1; i>=0; i--)
+			remove(doomedPositions[i], nodeId);
+	}
+
+	/**
+	 * @return the columns as they are now, for a snapshot to read on any thread
+	 */
+	public Columns share()
+	{
+		this.shared = true;
+		return new Columns(this);
+	}
+
+	/**
+	 * Copies any columns shared with a snapshot, before they are changed
+	 */
+	private void unshare()
+	{
+		if (!this.shared)
+			return;
+		this.ends1 = this.ends1.clone();
+		this.ends2 = this.ends2.clone();
+		this.sides = this.sides.clone();
+		this.shared = false;
+	}
+
+	private void detach(int pos, int clearedNode)
+	{
+		int id = this.ids[pos];
+		NetworkConnection c = this.views.remove(id);
+		if (c != null)
+			c.detach();
+		int node1 = this.ends1[pos];
+		int node2 = this.ends2[pos];
+		unindexEnds(id, (node1 == clearedNode) ? -1 : node1, (node2 == clearedNode) ? -1 : node2);
+		this.positions[id] = -1;
+	}
+
+	/**
+	 * @return the position of the connection with this id, or -1 if it is not in the store
+	 */
+	public int positionOf(int id)
+	{
+		if (id < 0 || id >= this.nextId)
+			return -1;
+		return this.positions[id];
+	}
+
+	private void checkPosition(int pos)
+	{
+		if (pos < 0 || pos >= this.size)
+			throw new IndexOutOfBoundsException("Index: "+pos+", Size: "+this.size);
+	}
+
+	public int getId(int pos)
+	{
+		checkPosition(pos);
+		return this.ids[pos];
+	}
+
+	public int getNode1(int pos)
+	{
+		checkPosition(pos);
+		return this.ends1[pos];
+	}
+
+	public int getNode2(int pos)
+	{
+		checkPosition(pos);
+		return this.ends2[pos];
+	}
+
+	public Side getSide1(int pos)
+	{
+		checkPosition(pos);
+		return unpackSide1(this.sides[pos]);
+	}
+
+	public Side getSide2(int pos)
+	{
+		checkPosition(pos);
+		return unpackSide2(this.sides[pos]);
+	}
+
+	/**
+	 * Rebinds the ends of the connection at pos
+	 */
+	public void setEnds(int pos, int node1, int node2)
+	{
+		checkPosition(pos);
+		unshare();
+		int id = this.ids[pos];
+		unindexEnds(id, this.ends1[pos], this.ends2[pos]);
+		this.ends1[pos] = node1;
+		this.ends2[pos] = node2;
+		indexEnds(id, node1, node2);
+	}
+
+	/**
+	 * @return the NetworkConnection for the connection at pos, creating it on first use
+	 */
+	public NetworkConnection getView(int pos)
+	{
+		checkPosition(pos);
+		int id = this.ids[pos];
+		NetworkConnection c = this.views.get(id);
+		if (c == null)
+		{
+			c = new NetworkConnection(this.networkModel, this, id);
+			this.views.put(id, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Makes c the NetworkConnection for the connection at pos.
+	 */
+	public void setView(int pos, NetworkConnection c)
+	{
+		checkPosition(pos);
+		this.views.put(this.ids[pos], c);
+	}
+
+	/**
+	 * @return the number of connections attached to node id
+	 */
+	public int degree(int nodeId)
+	{
+		return (nodeId < this.degree.length) ? this.degree[nodeId] : 0;
+	}
+
+	/**
+	 * @return the ids of the connections attached to node id, in no particular order
+	 */
+	public int[] incidentIds(int nodeId)
+	{
+		int d = degree(nodeId);
+		if (d == 0)
+			return new int[0];
+		return Arrays.copyOf(this.incident[nodeId], d);
+	}
+
+	private void indexEnds(int id, int node1, int node2)
+	{
+		if (node1 >= 0)
+			this.slots1[id] = indexEnd(id, node1);
+		if (node2 >= 0 && node2 != node1)
+			this.slots2[id] = indexEnd(id, node2);
+	}
+
+	/**
+	 * @param node1 the first node, or -1 to leave its list alone
+	 * @param node2 the second node, or -1 to leave its list alone
+	 */
+	private void unindexEnds(int id, int node1, int node2)
+	{
+		if (node1 >= 0)
+			unindexEnd(node1, this.slots1[id]);
+		if (node2 >= 0 && node2 != node1)
+			unindexEnd(node2, this.slots2[id]);
+	}
+
+	/**
+	 * @return where id was put in the node's list
+	 */
+	private int indexEnd(int id, int nodeId)
+	{
+		if (nodeId >= this.degree.length)
+		{
+			int length = Math.max(this.degree.length*2, nodeId+1);
+			this.degree = Arrays.copyOf(this.degree, length);
+			this.incident = Arrays.copyOf(this.incident, length);
+		}
+		int d = this.degree[nodeId];
+		int[] list = this.incident[nodeId];
+		if (list == null)
+			list = this.incident[nodeId] = new int[2];
+		else if (d == list.length)
+			list = this.incident[nodeId] = Arrays.copyOf(list, d*2);
+		list[d] = id;
+		this.degree[nodeId] = d+1;
+		return d;
+	}
+
+	/**
+	 * Takes the id at slot out of the node's list, moving the last id into its place
+	 */
+	private void unindexEnd(int nodeId, int slot)
+	{
+		int last = --this.degree[nodeId];
+		int[] list = this.incident[nodeId];
+		if (last == 0)
+		{
+			this.incident[nodeId] = null;
+			return;
+		}
+		if (slot == last)
+			return;
+		int moved = list[last];
+		list[slot] = moved;
+		if (this.ends1[this.positions[moved]] == nodeId)
+			this.slots1[moved] = slot;
+		else
+			this.slots2[moved] = slot;
+	}
+
+	/**
+	 * Builds a compressed sparse row adjacency from the columns.
+	 * @param nodeIdLimit one more than the largest node id in use
+	 */
+	public NetworkAdjacency buildAdjacency(int nodeIdLimit)
+	{
+		int[] offsets = new int[nodeIdLimit+1];
+		for (int i=0; i<this.size; i++)
+		{
+			int a = this.ends1[i];
+			int b = this.ends2[i];
+			if (a >= 0)
+				offsets[a+1]++;
+			if (b >= 0 && b != a)
+				offsets[b+1]++;
+		}
+		for (int n=0; n<nodeIdLimit; n++)
+			offsets[n+1] += offsets[n];
+
+		int[] connections = new int[offsets[nodeIdLimit]];
+		int[] neighbours = new int[offsets[nodeIdLimit]];
+		int[] fill = Arrays.copyOf(offsets, nodeIdLimit);
+		for (int i=0; i<this.size; i++)
+		{
+			int a = this.ends1[i];
+			int b = this.ends2[i];
+			if (a >= 0)
+			{
+				connections[fill[a]] = i;
+				neighbours[fill[a]++] = b;
+			}
+			if (b >= 0 && b != a)
+			{
+				connections[fill[b]] = i;
+				neighbours[fill[b]++] = a;
+			}
+		}
+		return new NetworkAdjacency(offsets, connections, neighbours);
+	}
+}
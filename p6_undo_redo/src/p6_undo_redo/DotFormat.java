@@ -0,0 +1,551 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Reads and writes networks in the Graphviz DOT language, a statement at a time.
+ *
+ * A node statement gives a node named by its id, at the location of its pos
+ * attribute ("x,y", in points with y growing upwards) or at the origin.  An edge
+ * statement, including a chain such as a -> b -> c, gives a connection between
+ * each pair of neighbouring nodes.  The sides of a connection come from the
+ * compass points of its ports, as in a:e -> b:w, or from its tailport and headport
+ * attributes, and default to R at the tail and L at the head.  Nodes that are only
+ * named by edges are added at the origin once the whole graph has been read.
+ * Subgraphs are read as if their statements were in the graph itself, and graph
+ * attributes and default attributes are skipped.  In a quoted id, \" and \\ stand
+ * for a quote and a backslash.
+ *
+ * Nodes with the same name are written as one node, since DOT names a node by its id.
+ */
+class DotFormat
+{
+	static final String EXTENSION = ".dot";
+	static final String OTHER_EXTENSION = ".gv";
+
+	private static final int EOF = -1;
+
+	//Kinds of token
+	private static final int ID = 0;
+	private static final int EDGE_OP = 1;
+	private static final int PUNCTUATION = 2;
+	private static final int END = 3;
+
+	/**
+	 * @return true if a model saved to path should be written in DOT
+	 */
+	static boolean hasExtension(String path)
+	{
+		String p = NetworkCompression.withoutCompressedExtension(path).toLowerCase();
+		return p.endsWith(EXTENSION) || p.endsWith(OTHER_EXTENSION);
+	}
+
+	private Reader in;
+	private char[] buf = new char[1 << 16];
+	private int pos;
+	private int limit;
+
+	//The current character, or EOF, and where it is
+	private int c;
+	private int line = 1;
+	private int column = 1;
+
+	//The current token: its kind, its text and where it started
+	private int kind;
+	private StringBuilder text = new StringBuilder();
+	private int tokenLine;
+	private int tokenColumn;
+
+	private NetworkFileParser.RecordHandler handler;
+	private HashSet<String> declared = new HashSet<String>();
+	private LinkedHashSet<String> undeclared = new LinkedHashSet<String>();
+
+	DotFormat(Reader in)
+	{
+		this.in = in;
+	}
+
+	/**
+	 * Reads a whole graph, passing its nodes and connections to handler
+	 * @throws NetworkFormatException if the graph is malformed
+	 */
+	void parse(NetworkFileParser.RecordHandler handler) throws IOException
+	{
+		this.handler = handler;
+		this.c = read();
+		next();
+		if (isKeyword("strict"))
+			next();
+		if (!isKeyword("graph") && !isKeyword("digraph"))
+			throw error("expected graph or digraph");
+		next();
+		if (this.kind == ID)
+			next();
+		expect("{");
+		statements();
+		expect("}");
+
+		for (String name : this.undeclared)
+			this.handler.node(name, 0, 0);
+	}
+
+	/**
+	 * Reads statements up to the closing brace of the graph or subgraph they are in
+	 */
+	private void statements() throws IOException
+	{
+		while (this.kind != END && !is("}"))
+		{
+			if (is(";"))
+				next();
+			else if (is("{") || isKeyword("subgraph"))
+				subgraph();
+			else if (isKeyword("graph") || isKeyword("node") || isKeyword("edge"))
+			{
+				next();
+				attributes(null);
+			}
+			else if (this.kind == ID)
+				nodeOrEdge();
+			else
+				throw error("unexpected '"+this.text+"'");
+		}
+	}
+
+	private void subgraph() throws IOException
+	{
+		if (isKeyword("subgraph"))
+		{
+			next();
+			if (this.kind == ID)
+				next();
+		}
+		expect("{");
+		statements();
+		expect("}");
+	}
+
+	private void nodeOrEdge() throws IOException
+	{
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Side> ports = new ArrayList<Side>();
+		names.add(this.text.toString());
+		next();
+		ports.add(port());
+		while (this.kind == EDGE_OP)
+		{
+			next();
+			if (this.kind != ID)
+				throw error("expected a node id after the edge operator (edges to subgraphs are not supported)");
+			names.add(this.text.toString());
+			next();
+			ports.add(port());
+		}
+
+		String[] values = new String[3];
+		if (is("="))
+		{
+			//A graph attribute, id = id
+			next();
+			next();
+			return;
+		}
+		attributes(values);
+
+		if (names.size() == 1)
+		{
+			node(names.get(0), values[0]);
+			return;
+		}
+		Side tail = GraphMLFormat.port(compass(values[1]), Side.R);
+		Side head = GraphMLFormat.port(compass(values[2]), Side.L);
+		for (int i=0; i+1<names.size(); i++)
+		{
+			String node1 = names.get(i);
+			String node2 = names.get(i+1);
+			referenced(node1);
+			referenced(node2);
+			this.handler.connection(node1, ports.get(i) != null ? ports.get(i) : tail,
+									node2, ports.get(i+1) != null ? ports.get(i+1) : head);
+		}
+	}
+
+	private void node(String name, String position) throws IOException
+	{
+		if (!this.declared.add(name))
+			return;
+		this.undeclared.remove(name);
+		double x = 0;
+		double y = 0;
+		if (position != null)
+		{
+			String[] xy = position.replace("!", "").split(",");
+			try {
+				x = Double.parseDouble(xy[0].trim());
+				y = 0.0-Double.parseDouble(xy[1].trim());
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				throw error("expected a position \"x,y\" but found \""+position+"\"");
+			}
+		}
+		this.handler.node(name, x, y);
+	}
+
+	private void referenced(String name)
+	{
+		if (!this.declared.contains(name))
+			this.undeclared.add(name);
+	}
+
+	/**
+	 * Reads an optional port, :id or :id:compass
+	 * @return the side its compass point gives, or null
+	 */
+	private Side port() throws IOException
+	{
+		Side side = null;
+		while (is(":"))
+		{
+			next();
+			if (this.kind != ID)
+				throw error("expected a port");
+			side = GraphMLFormat.port(this.text.toString(), side);
+			next();
+		}
+		return side;
+	}
+
+	/**
+	 * @return the compass point at the end of a port attribute such as "p:e"
+	 */
+	private static String compass(String port)
+	{
+		return (port == null) ? null : port.substring(port.lastIndexOf(':')+1);
+	}
+
+	/**
+	 * Reads any number of attribute lists, keeping pos, tailport and headport in
+	 * values if it is not null
+	 */
+	private void attributes(String[] values) throws IOException
+	{
+		while (is("["))
+		{
+			next();
+			while (!is("]"))
+			{
+				if (this.kind != ID)
+					throw error("expected an attribute name");
+				String name = this.text.toString();
+				next();
+				String value = null;
+				if (is("="))
+				{
+					next();
+					if (this.kind != ID)
+						throw error("expected a value for "+name);
+					value = this.text.toString();
+					next();
+				}
+				if (values != null)
+				{
+					if (name.equals("pos"))
+						values[0] = value;
+					else if (name.equals("tailport"))
+						values[1] = value;
+					else if (name.equals("headport"))
+						values[2] = value;
+				}
+				if (is(",") || is(";"))
+					next();
+			}
+			next();
+		}
+	}
+
+	private boolean is(String punctuation)
+	{
+		return this.kind == PUNCTUATION && punctuation.contentEquals(this.text);
+	}
+
+	private boolean isKeyword(String keyword)
+	{
+		return this.kind == ID && keyword.equalsIgnoreCase(this.text.toString());
+	}
+
+	private void expect(String punctuation) throws IOException
+	{
+		if (!is(punctuation))
+			throw error("expected '"+punctuation+"'");
+		next();
+	}
+
+	/**
+	 * Moves on to the next token
+	 */
+	private void next() throws IOException
+	{
+		skipSpaceAndComments();
+		this.tokenLine = this.line;
+		this.tokenColumn = this.column;
+		this.text.setLength(0);
+		if (this.c == EOF)
+		{
+			this.kind = END;
+			return;
+		}
+		if (this.c == '"')
+		{
+			quoted();
+			//"a" + "b" is one id
+			skipSpaceAndComments();
+			while (this.c == '+')
+			{
+				advance();
+				skipSpaceAndComments();
+				if (this.c != '"')
+					throw error("expected a quoted string after '+'");
+				quoted();
+				skipSpaceAndComments();
+			}
+			this.kind = ID;
+		}
+		else if (this.c == '<')
+			html();
+		else if (this.c == '-' && peekEdgeOp())
+		{
+			advance();
+			advance();
+			this.kind = EDGE_OP;
+		}
+		else if (isIdChar(this.c) || this.c == '-' || this.c == '.')
+		{
+			while (isIdChar(this.c) || this.c == '-' || this.c == '.')
+			{
+				this.text.append((char) this.c);
+				advance();
+				if (this.c == '-' && peekEdgeOp())
+					break;
+			}
+			this.kind = ID;
+		}
+		else
+		{
+			this.text.append((char) this.c);
+			advance();
+			this.kind = PUNCTUATION;
+		}
+	}
+
+	private void quoted() throws IOException
+	{
+		int startLine = this.line;
+		int startColumn = this.column;
+		advance();
+		while (this.c != '"')
+		{
+			if (this.c == EOF)
+				throw new NetworkFormatException("string is missing its closing quote", startLine, startColumn);
+			if (this.c == '\\')
+			{
+				advance();
+				if (this.c == '\n')
+				{
+					//A line continuation
+					advance();
+					continue;
+				}
+				if (this.c != '"' && this.c != '\\')
+					this.text.append('\\');
+				if (this.c == EOF)
+					continue;
+			}
+			this.text.append((char) this.c);
+			advance();
+		}
+		advance();
+	}
+
+	private void html() throws IOException
+	{
+		int startLine = this.line;
+		int startColumn = this.column;
+		int depth = 0;
+		do {
+			if (this.c == EOF)
+				throw new NetworkFormatException("HTML string is missing its closing '>'", startLine, startColumn);
+			if (this.c == '<')
+				depth++;
+			else if (this.c == '>')
+				depth--;
+			if (depth > 1 || (depth == 1 && this.c != '<'))
+				this.text.append((char) this.c);
+			advance();
+		} while (depth > 0);
+		this.kind = ID;
+	}
+
+	/**
+	 * @return true if the '-' at the current character starts -> or --
+	 */
+	private boolean peekEdgeOp() throws IOException
+	{
+		int next = peek();
+		return next == '>' || next == '-';
+	}
+
+	private static boolean isIdChar(int ch)
+	{
+		return ch == '_' || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch >= 0x80;
+	}
+
+	private void skipSpaceAndComments() throws IOException
+	{
+		while (true)
+		{
+			if (this.c == ' ' || this.c == '\t' || this.c == '\r' || this.c == '\n')
+				advance();
+			else if (this.c == '#' && this.column == 1)
+				skipLine();
+			else if (this.c == '/' && peek() == '/')
+				skipLine();
+			else if (this.c == '/' && peek() == '*')
+			{
+				int startLine = this.line;
+				int startColumn = this.column;
+				advance();
+				advance();
+				while (!(this.c == '*' && peek() == '/'))
+				{
+					if (this.c == EOF)
+						throw new NetworkFormatException("comment is missing its closing */", startLine, startColumn);
+					advance();
+				}
+				advance();
+				advance();
+			}
+			else
+				return;
+		}
+	}
+
+	private void skipLine() throws IOException
+	{
+		while (this.c != '\n' && this.c != EOF)
+			advance();
+	}
+
+	private int read() throws IOException
+	{
+		while (this.pos == this.limit)
+		{
+			this.pos = 0;
+			this.limit = this.in.read(this.buf, 0, this.buf.length);
+			if (this.limit < 0)
+			{
+				this.limit = 0;
+				return EOF;
+			}
+		}
+		return this.buf[this.pos++];
+	}
+
+	/**
+	 * @return the character after the current one, without moving past it
+	 */
+	private int peek() throws IOException
+	{
+		if (this.pos == this.limit)
+		{
+			//The current character is already in c, so the buffer can be refilled
+			int n = this.in.read(this.buf, 0, this.buf.length);
+			if (n <= 0)
+				return EOF;
+			this.pos = 0;
+			this.limit = n;
+		}
+		return this.buf[this.pos];
+	}
+
+	private void advance() throws IOException
+	{
+		if (this.c == '\n')
+		{
+			this.line++;
+			this.column = 1;
+		}
+		else
+			this.column++;
+		this.c = read();
+	}
+
+	private NetworkFormatException error(String message)
+	{
+		return new NetworkFormatException(message, this.tokenLine, this.tokenColumn);
+	}
+
+	/**
+	 * Writes snapshot to out in DOT, leaving out open
+	 */
+	static void write(NetworkSnapshot snapshot, Writer out) throws IOException
+	{
+		String nl = System.getProperty("line.separator");
+		StringBuilder sb = new StringBuilder(256);
+		out.write("digraph network {"+nl);
+		out.write("\tnode [shape=box];"+nl);
+		for (int i=0; i<snapshot.nNodes(); i++)
+		{
+			sb.setLength(0);
+			sb.append('\t');
+			quote(sb, snapshot.getNodeName(i));
+			sb.append(" [pos=\"").append(snapshot.getX(i)).append(',').append(0.0-snapshot.getY(i)).append("\"];").append(nl);
+			out.append(sb);
+		}
+		for (int i=0; i<snapshot.nConnections(); i++)
+		{
+			sb.setLength(0);
+			sb.append('\t');
+			quote(sb, snapshot.getConnectionNode1(i));
+			sb.append(" -> ");
+			quote(sb, snapshot.getConnectionNode2(i));
+			sb.append(" [tailport=").append(compass(snapshot.getConnectionSide1(i)))
+			  .append(", headport=").append(compass(snapshot.getConnectionSide2(i))).append("];").append(nl);
+			out.append(sb);
+		}
+		out.write("}"+nl);
+	}
+
+	private static void quote(StringBuilder sb, String id)
+	{
+		sb.append('"');
+		for (int i=0; i<id.length(); i++)
+		{
+			char ch = id.charAt(i);
+			if (ch == '"' || ch == '\\')
+				sb.append('\\');
+			sb.append(ch);
+		}
+		sb.append('"');
+	}
+
+	private static char compass(Side s)
+	{
+		switch (s)
+		{
+		case T:
+			return 'n';
+		case B:
+			return 's';
+		case L:
+			return 'w';
+		default:
+			return 'e';
+		}
+	}
+}
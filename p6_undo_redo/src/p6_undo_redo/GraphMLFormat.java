@@ -0,0 +1,341 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Reads and writes networks as GraphML, one element at a time, so that neither
+ * holds the document in memory.
+ *
+ * Nodes and edges are mapped onto NetworkNodes and NetworkConnections through
+ * data elements whose keys have these attr.name values:
+ * 		x, y			a node's location, 0 if missing
+ * 		name or label	a node's name, its id if missing
+ * 		side1, side2	the sides an edge leaves its source and enters its target,
+ * 						as T, B, L or R or as the compass points n, s, w or e
+ * An edge's sourceport and targetport attributes give its sides too when the data
+ * does not.  Sides default to R at the source and L at the target.  An edge to an
+ * id that is not a node's is taken to name a node that is not in the network.
+ *
+ * Nodes are written with the ids n0, n1, ... and their names as data, since names
+ * need not be unique.  An edge goes to the first node with the name it refers to,
+ * as a connection is bound in the model.
+ */
+class GraphMLFormat
+{
+	static final String EXTENSION = ".graphml";
+
+	private static final String NAMESPACE = "http://graphml.graphdrawing.org/xmlns";
+
+	private enum Field { X, Y, NAME, SIDE1, SIDE2 }
+
+	/**
+	 * @return true if a model saved to path should be written as GraphML
+	 */
+	static boolean hasExtension(String path)
+	{
+		return NetworkCompression.withoutCompressedExtension(path).toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Reads a GraphML document from in, passing its nodes and edges to handler in
+	 * document order
+	 */
+	static void read(InputStream in, NetworkFileParser.RecordHandler handler) throws IOException
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		XMLStreamReader r = null;
+		try {
+			r = factory.createXMLStreamReader(in);
+			new Reader(r, handler).read();
+		} catch (XMLStreamException e) {
+			Location at = e.getLocation();
+			throw new NetworkFormatException(e.getMessage(), at == null ? 0 : at.getLineNumber(), at == null ? 0 : at.getColumnNumber());
+		} finally {
+			if (r != null)
+			{
+				try {
+					r.close();
+				} catch (XMLStreamException e) {
+					//Nothing more to read
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks the elements of one document
+	 */
+	private static class Reader
+	{
+		private XMLStreamReader r;
+		private NetworkFileParser.RecordHandler handler;
+
+		//What each data key holds, and the names of nodes whose name is not their id
+		private HashMap<String, Field> keys = new HashMap<String, Field>();
+		private HashMap<String, String> names = new HashMap<String, String>();
+
+		//The node or edge being read
+		private String id;
+		private String source;
+		private String target;
+		private String name;
+		private double x;
+		private double y;
+		private Side side1;
+		private Side side2;
+
+		Reader(XMLStreamReader r, NetworkFileParser.RecordHandler handler)
+		{
+			this.r = r;
+			this.handler = handler;
+		}
+
+		void read() throws XMLStreamException, NetworkFormatException
+		{
+			while (this.r.hasNext())
+			{
+				int event = this.r.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+					startElement(this.r.getLocalName());
+				else if (event == XMLStreamConstants.END_ELEMENT)
+					endElement(this.r.getLocalName());
+			}
+		}
+
+		private void startElement(String element) throws XMLStreamException, NetworkFormatException
+		{
+			if (element.equals("key"))
+			{
+				Field f = field(this.r.getAttributeValue(null, "attr.name"));
+				if (f != null)
+					this.keys.put(this.r.getAttributeValue(null, "id"), f);
+			}
+			else if (element.equals("node"))
+			{
+				this.id = required("id");
+				this.name = null;
+				this.x = 0;
+				this.y = 0;
+			}
+			else if (element.equals("edge"))
+			{
+				this.source = required("source");
+				this.target = required("target");
+				this.side1 = port(this.r.getAttributeValue(null, "sourceport"), Side.R);
+				this.side2 = port(this.r.getAttributeValue(null, "targetport"), Side.L);
+			}
+			else if (element.equals("data"))
+				data(this.keys.get(this.r.getAttributeValue(null, "key")));
+		}
+
+		private void endElement(String element)
+		{
+			if (element.equals("node"))
+			{
+				String nodeName = (this.name != null) ? this.name.trim() : this.id;
+				if (!nodeName.equals(this.id))
+					this.names.put(this.id, nodeName);
+				this.handler.node(nodeName, this.x, this.y);
+			}
+			else if (element.equals("edge"))
+				this.handler.connection(nameOf(this.source), this.side1, nameOf(this.target), this.side2);
+		}
+
+		private void data(Field f) throws XMLStreamException, NetworkFormatException
+		{
+			if (f == null)
+				return;
+			Location at = this.r.getLocation();
+			String text = this.r.getElementText().trim();
+			try {
+				switch (f)
+				{
+				case X:
+					this.x = Double.parseDouble(text);
+					break;
+				case Y:
+					this.y = Double.parseDouble(text);
+					break;
+				case NAME:
+					this.name = text;
+					break;
+				case SIDE1:
+					this.side1 = side(text, at);
+					break;
+				case SIDE2:
+					this.side2 = side(text, at);
+					break;
+				}
+			} catch (NumberFormatException e) {
+				throw new NetworkFormatException("expected a number but found \""+text+"\"", at.getLineNumber(), at.getColumnNumber());
+			}
+		}
+
+		private String required(String attribute) throws NetworkFormatException
+		{
+			String value = this.r.getAttributeValue(null, attribute);
+			if (value == null)
+			{
+				Location at = this.r.getLocation();
+				throw new NetworkFormatException(this.r.getLocalName()+" is missing its "+attribute, at.getLineNumber(), at.getColumnNumber());
+			}
+			return value;
+		}
+
+		private String nameOf(String nodeId)
+		{
+			String nodeName = this.names.get(nodeId);
+			return (nodeName != null) ? nodeName : nodeId;
+		}
+
+		private Side side(String text, Location at) throws NetworkFormatException
+		{
+			Side s = port(text, null);
+			if (s == null)
+				throw new NetworkFormatException("expected a side (T, B, L or R) but found \""+text+"\"", at.getLineNumber(), at.getColumnNumber());
+			return s;
+		}
+	}
+
+	private static Field field(String attrName)
+	{
+		if (attrName == null)
+			return null;
+		switch (attrName.toLowerCase())
+		{
+		case "x":
+			return Field.X;
+		case "y":
+			return Field.Y;
+		case "name":
+		case "label":
+			return Field.NAME;
+		case "side1":
+			return Field.SIDE1;
+		case "side2":
+			return Field.SIDE2;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the side named by a side letter or a compass point, or otherwise
+	 */
+	static Side port(String text, Side otherwise)
+	{
+		if (text == null)
+			return otherwise;
+		switch (text.trim())
+		{
+		case "T": case "n": case "N":
+			return Side.T;
+		case "B": case "s": case "S":
+			return Side.B;
+		case "L": case "w": case "W":
+			return Side.L;
+		case "R": case "e": case "E":
+			return Side.R;
+		}
+		return otherwise;
+	}
+
+	/**
+	 * Writes snapshot to out as GraphML, leaving out open
+	 */
+	static void write(NetworkSnapshot snapshot, OutputStream out) throws IOException
+	{
+		try {
+			XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			w.writeStartDocument("UTF-8", "1.0");
+			w.writeCharacters("\n");
+			w.writeStartElement("graphml");
+			w.writeDefaultNamespace(NAMESPACE);
+			w.writeCharacters("\n");
+			writeKey(w, "x", "node", "x", "double");
+			writeKey(w, "y", "node", "y", "double");
+			writeKey(w, "name", "node", "name", "string");
+			writeKey(w, "side1", "edge", "side1", "string");
+			writeKey(w, "side2", "edge", "side2", "string");
+			w.writeStartElement("graph");
+			w.writeAttribute("edgedefault", "directed");
+			w.writeCharacters("\n");
+
+			HashMap<String, Integer> firstNamed = new HashMap<String, Integer>();
+			for (int i=0; i<snapshot.nNodes(); i++)
+			{
+				String nodeName = snapshot.getNodeName(i);
+				if (!firstNamed.containsKey(nodeName))
+					firstNamed.put(nodeName, i);
+				w.writeStartElement("node");
+				w.writeAttribute("id", "n"+i);
+				writeData(w, "x", Double.toString(snapshot.getX(i)));
+				writeData(w, "y", Double.toString(snapshot.getY(i)));
+				writeData(w, "name", nodeName);
+				w.writeEndElement();
+				w.writeCharacters("\n");
+			}
+			for (int i=0; i<snapshot.nConnections(); i++)
+			{
+				w.writeStartElement("edge");
+				w.writeAttribute("source", idOf(snapshot.getConnectionNode1(i), firstNamed));
+				w.writeAttribute("target", idOf(snapshot.getConnectionNode2(i), firstNamed));
+				writeData(w, "side1", snapshot.getConnectionSide1(i).name());
+				writeData(w, "side2", snapshot.getConnectionSide2(i).name());
+				w.writeEndElement();
+				w.writeCharacters("\n");
+			}
+
+			w.writeEndElement();
+			w.writeCharacters("\n");
+			w.writeEndElement();
+			w.writeCharacters("\n");
+			w.writeEndDocument();
+			w.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return the id of the first node called name, or name itself if there is none
+	 */
+	private static String idOf(String name, HashMap<String, Integer> firstNamed)
+	{
+		Integer i = firstNamed.get(name);
+		return (i != null) ? "n"+i : name;
+	}
+
+	private static void writeKey(XMLStreamWriter w, String id, String forElement, String attrName, String type) throws XMLStreamException
+	{
+		w.writeEmptyElement("key");
+		w.writeAttribute("id", id);
+		w.writeAttribute("for", forElement);
+		w.writeAttribute("attr.name", attrName);
+		w.writeAttribute("attr.type", type);
+		w.writeCharacters("\n");
+	}
+
+	private static void writeData(XMLStreamWriter w, String key, String value) throws XMLStreamException
+	{
+		w.writeStartElement("data");
+		w.writeAttribute("key", key);
+		w.writeCharacters(value);
+		w.writeEndElement();
+	}
+}
@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import javax.swing.*;
@@ -12,7 +13,7 @@ public class Network
 {
 	static ArrayList<NetworkView> networkViewList = new ArrayList<NetworkView>();
 	
-	public static void createNewWindow(NetworkModel networkModel)
+	public static NetworkView createNewWindow(NetworkModel networkModel)
 	{
 		final NetworkView networkView = new NetworkView(networkModel);
 		networkViewList.add(networkView);
@@ -32,33 +33,48 @@ public class Network
 					public void windowClosing(WindowEvent evt)
 					{ 
 //						System.out.println(networkView.getNetworkModel().getFileName());
-						if (networkView.getNetworkModel().nNetworkListeners() == 1 &&
+						if (networkView.isLoading())
+						{
+							//The loader closes the window once it has stopped
+							networkView.cancelLoading();
+						}
+						else if (networkView.getNetworkModel().nNetworkListeners() == 1 &&
 							networkView.getNetworkModel().unsavedChanges())
 						{
 							int reply = JOptionPane.showConfirmDialog(null, "Save Changes?", "Unsaved Changes", JOptionPane.YES_NO_CANCEL_OPTION);
 							if (reply == JOptionPane.YES_OPTION)
 							{
-								networkView.save();
-								networkView.getNetworkModel().removeNetworkListener(networkView);
-								F.dispose();
-								if (networkViewList.size() == 1)
-									System.exit(0);
+								//The window stays open until the save is written, and if it fails
+								networkView.save(new Runnable() {
+									public void run()
+									{
+										close();
+									}
+								});
 							}
 							if (reply == JOptionPane.NO_OPTION)
-							{
-								networkView.getNetworkModel().removeNetworkListener(networkView);
-								F.dispose();
-								if (networkViewList.size() == 1)
-									System.exit(0);
-							}
+								close();
 						}
 						else
+							close();
+					}
+					
+					private void close()
+					{
+						NetworkModel model = networkView.getNetworkModel();
+						model.removeNetworkListener(networkView);
+						//Stop watching the model's file once no window shows it
+						if (model.nNetworkListeners() == 0)
 						{
-							networkView.getNetworkModel().removeNetworkListener(networkView);
-							F.dispose();
-							if (networkViewList.size() == 1)
-								System.exit(0);
+							try {
+								model.setWatched(false);
+							} catch (IOException e) {
+								e.printStackTrace();
+							}
 						}
+						F.dispose();
+						if (networkViewList.size() == 1)
+							System.exit(0);
 					}
 				});
 		
@@ -66,11 +82,15 @@ public class Network
 		F.setVisible(true);
 		F.setFocusable(true);
 		networkView.requestFocusInWindow();
+		return networkView;
 	}
 	
 	public static void main(String[] args) 
 	{
 //		NetworkModel.Test();
+//		NetworkView.Test();
+//		NetworkRenderer.Test();
+//		Quadtree.Test();
 		
 		NetworkModel networkModel = null;
 		try {
@@ -78,8 +98,10 @@ public class Network
 				networkModel = new NetworkModel();
 			else if (args.length == 1)
 			{
+				//The window opens straight away and fills in as the file is read
 				File f = new File(args[0]);
-				networkModel = new NetworkModel(f.getCanonicalPath());
+				NetworkLoader.open(f.getCanonicalPath());
+				return;
 			}
 			else
 			{
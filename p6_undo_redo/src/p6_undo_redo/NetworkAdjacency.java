@@ -0,0 +1,56 @@
+package p6_undo_redo;
+
+/**
+ * A read-only compressed sparse row view of which connections attach to which nodes.
+ * Nodes are addressed by id and connections by index, as of the time the view was
+ * built.  NetworkModel.getAdjacency() builds a new one after the model changes.
+ */
+public class NetworkAdjacency
+{
+	private int[] offsets;
+	private int[] connections;
+	private int[] neighbours;
+
+	NetworkAdjacency(int[] offsets, int[] connections, int[] neighbours)
+	{
+		this.offsets = offsets;
+		this.connections = connections;
+		this.neighbours = neighbours;
+	}
+
+	/**
+	 * @return one more than the largest node id covered by this view
+	 */
+	public int nodeIdLimit()
+	{
+		return this.offsets.length-1;
+	}
+
+	/**
+	 * @return the number of connections attached to node id.  A connection from
+	 * 	a node to itself counts once.
+	 */
+	public int degree(int nodeId)
+	{
+		if (nodeId < 0 || nodeId >= nodeIdLimit())
+			return 0;
+		return this.offsets[nodeId+1]-this.offsets[nodeId];
+	}
+
+	/**
+	 * @return the index of the k-th connection attached to node id
+	 */
+	public int getConnection(int nodeId, int k)
+	{
+		return this.connections[this.offsets[nodeId]+k];
+	}
+
+	/**
+	 * @return the id of the node at the other end of the k-th connection attached
+	 * 	to node id, or -1 if that end is not bound to a node
+	 */
+	public int getNeighbour(int nodeId, int k)
+	{
+		return this.neighbours[this.offsets[nodeId]+k];
+	}
+}
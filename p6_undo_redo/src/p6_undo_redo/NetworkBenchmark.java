@@ -0,0 +1,76 @@
+package p6_undo_redo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Times saving and loading a network file in each of the formats a model can be
+ * saved in, and reports the size of each file and how fast it was written and read.
+ *
+ * Usage: NetworkBenchmark file [runs]
+ */
+public class NetworkBenchmark
+{
+	private static final String[] FORMATS = {
+		".network",
+		".network"+NetworkCompression.EXTENSION,
+		NetworkBinaryFormat.EXTENSION,
+		NetworkBinaryFormat.EXTENSION+NetworkCompression.EXTENSION
+	};
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1 || args.length > 2)
+		{
+			System.out.println("Provide a network file and optionally the number of runs.");
+			return;
+		}
+		try {
+			run(args[0], args.length == 2 ? Integer.parseInt(args[1]) : 3);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	static void run(String source, int runs) throws IOException
+	{
+		//The benchmark is of the formats, not the cache
+		NetworkModelCache.setDirectory(null);
+		NetworkModel model = new NetworkModel(source);
+		int records = model.nNodes()+model.nConnections();
+		System.out.println(records+" records");
+		System.out.println(String.format("%-16s %12s %12s %12s %12s", "format", "bytes", "save MB/s", "load MB/s", "load rec/s"));
+
+		for (String format : FORMATS)
+		{
+			File f = File.createTempFile("benchmark", format);
+			f.deleteOnExit();
+			long saveTime = Long.MAX_VALUE;
+			long loadTime = Long.MAX_VALUE;
+			for (int i=0; i<runs; i++)
+			{
+				long start = System.nanoTime();
+				model.saveAs(f.getPath());
+				saveTime = Math.min(saveTime, System.nanoTime()-start);
+
+				start = System.nanoTime();
+				new NetworkModel(f.getPath());
+				loadTime = Math.min(loadTime, System.nanoTime()-start);
+			}
+			long size = f.length();
+			System.out.println(String.format("%-16s %12d %12.1f %12.1f %12.0f", format, size,
+											 megabytesPerSecond(size, saveTime), megabytesPerSecond(size, loadTime),
+											 records/(loadTime/1e9)));
+			f.delete();
+		}
+	}
+
+	/**
+	 * @return the rate at which bytes of the file went by, so that compressed
+	 * 	formats are measured by the bytes that are actually read from disk
+	 */
+	private static double megabytesPerSecond(long bytes, long nanos)
+	{
+		return bytes/(1024.0*1024.0)/(nanos/1e9);
+	}
+}
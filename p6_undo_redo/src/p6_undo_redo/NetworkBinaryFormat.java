@@ -0,0 +1,317 @@
+package p6_undo_redo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reads and writes the binary form of a network description file.
+ *
+ * The file starts with the magic bytes "NETB" and a version byte, followed by
+ * 		a name table:	count, then for each name its UTF-8 length and bytes
+ * 		the nodes:		count, the name of each node as an index into the name
+ * 						table, then every x and then every y as little-endian doubles
+ * 		the connections: count, then for each the name index of either end and
+ * 						one byte holding both sides
+ * Counts, lengths and name indexes are unsigned varints.  Connections refer to
+ * nodes by name, as in the text format, so converting between the two loses nothing.
+ */
+public class NetworkBinaryFormat
+{
+	/**
+	 * Files saved with this extension are written in the binary format
+	 */
+	public static final String EXTENSION = ".nbin";
+
+	private static final byte[] MAGIC = {'N', 'E', 'T', 'B'};
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return true if the file at path, once decompressed if it is compressed,
+	 * 	starts with the binary format's magic bytes
+	 */
+	public static boolean isBinary(String path) throws IOException
+	{
+		InputStream in = NetworkCompression.openInput(path);
+		try {
+			for (int i=0; i<MAGIC.length; i++)
+			{
+				if (in.read() != MAGIC[i])
+					return false;
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param in a stream that supports mark, which is left where it was
+	 * @return true if in starts with the binary format's magic bytes
+	 */
+	static boolean isBinary(InputStream in) throws IOException
+	{
+		in.mark(MAGIC.length);
+		try {
+			for (int i=0; i<MAGIC.length; i++)
+			{
+				if (in.read() != MAGIC[i])
+					return false;
+			}
+			return true;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * @return true if a model saved to path should be written in the binary format.
+	 * 	A path may also end in NetworkCompression.EXTENSION after the binary one.
+	 */
+	public static boolean hasBinaryExtension(String path)
+	{
+		return NetworkCompression.withoutCompressedExtension(path).toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Reads a binary network file from in, passing its nodes and then its
+	 * connections to handler in file order
+	 * @param path the file being read, for error messages
+	 */
+	static void read(InputStream in, String path, NetworkFileParser.RecordHandler handler) throws IOException
+	{
+		byte[] magic = new byte[MAGIC.length];
+		readFully(in, magic);
+		for (int i=0; i<MAGIC.length; i++)
+		{
+			if (magic[i] != MAGIC[i])
+				throw new IOException(path+" is not a binary network file");
+		}
+		int version = readByte(in);
+		if (version != VERSION)
+			throw new IOException(path+" has unsupported version "+version);
+
+		String[] names = new String[readCount(in)];
+		byte[] bytes = new byte[64];
+		for (int i=0; i<names.length; i++)
+		{
+			int length = readCount(in);
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, bytes.length*2)];
+			readFully(in, bytes, length);
+			names[i] = new String(bytes, 0, length, UTF8);
+		}
+
+		int nNodes = readCount(in);
+		int[] refs = new int[nNodes];
+		for (int i=0; i<nNodes; i++)
+			refs[i] = readRef(in, names.length);
+		double[] xs = readDoubles(in, nNodes);
+		double[] ys = readDoubles(in, nNodes);
+		for (int i=0; i<nNodes; i++)
+			handler.node(names[refs[i]], xs[i], ys[i]);
+
+		int nConnections = readCount(in);
+		for (int i=0; i<nConnections; i++)
+		{
+			String node1 = names[readRef(in, names.length)];
+			String node2 = names[readRef(in, names.length)];
+			byte sides = (byte) readByte(in);
+			handler.connection(node1, ConnectionStore.unpackSide1(sides), node2, ConnectionStore.unpackSide2(sides));
+		}
+	}
+
+	/**
+	 * Writes snapshot to path in the binary format
+	 */
+	static void write(NetworkSnapshot snapshot, String path) throws IOException
+	{
+		OutputStream out = NetworkCompression.openOutput(path);
+		try {
+			write(snapshot, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes snapshot to out in the binary format, leaving out open
+	 */
+	static void write(NetworkSnapshot snapshot, OutputStream out) throws IOException
+	{
+		ArrayList<String> names = new ArrayList<String>();
+		HashMap<String, Integer> refs = new HashMap<String, Integer>();
+		int nNodes = snapshot.nNodes();
+		int nConnections = snapshot.nConnections();
+		int[] nodeRefs = new int[nNodes];
+		for (int i=0; i<nNodes; i++)
+			nodeRefs[i] = nameRef(snapshot.getNodeName(i), names, refs);
+		int[] conRefs = new int[nConnections*2];
+		for (int i=0; i<nConnections; i++)
+		{
+			conRefs[2*i] = nameRef(snapshot.getConnectionNode1(i), names, refs);
+			conRefs[2*i+1] = nameRef(snapshot.getConnectionNode2(i), names, refs);
+		}
+
+		out.write(MAGIC);
+		out.write(VERSION);
+
+		writeVarint(out, names.size());
+		for (int i=0; i<names.size(); i++)
+		{
+			byte[] bytes = names.get(i).getBytes(UTF8);
+			writeVarint(out, bytes.length);
+			out.write(bytes);
+		}
+
+		writeVarint(out, nNodes);
+		for (int i=0; i<nNodes; i++)
+			writeVarint(out, nodeRefs[i]);
+		for (int i=0; i<nNodes; i++)
+			writeDouble(out, snapshot.getX(i));
+		for (int i=0; i<nNodes; i++)
+			writeDouble(out, snapshot.getY(i));
+
+		writeVarint(out, nConnections);
+		for (int i=0; i<nConnections; i++)
+		{
+			writeVarint(out, conRefs[2*i]);
+			writeVarint(out, conRefs[2*i+1]);
+			out.write(ConnectionStore.packSides(snapshot.getConnectionSide1(i), snapshot.getConnectionSide2(i)));
+		}
+	}
+
+	/**
+	 * Converts a network file between the text and binary formats.  The format of
+	 * source is detected from its contents and that of target from its extension.
+	 */
+	public static void convert(String source, String target) throws IOException
+	{
+		new NetworkModel(source).saveAs(target);
+	}
+
+	/**
+	 * Usage: NetworkBinaryFormat source target
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length != 2)
+		{
+			System.out.println("Provide a source and a target file path.  Targets ending in "+EXTENSION+" are written in binary.");
+			return;
+		}
+		try {
+			convert(args[0], args[1]);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static int nameRef(String name, ArrayList<String> names, HashMap<String, Integer> refs)
+	{
+		Integer ref = refs.get(name);
+		if (ref == null)
+		{
+			ref = names.size();
+			names.add(name);
+			refs.put(name, ref);
+		}
+		return ref;
+	}
+
+	private static void writeVarint(OutputStream out, int value) throws IOException
+	{
+		while ((value & ~0x7f) != 0)
+		{
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static void writeDouble(OutputStream out, double value) throws IOException
+	{
+		long bits = Double.doubleToLongBits(value);
+		for (int i=0; i<8; i++)
+		{
+			out.write((int) bits);
+			bits >>>= 8;
+		}
+	}
+
+	private static int readByte(InputStream in) throws IOException
+	{
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException("binary network file ends early");
+		return b;
+	}
+
+	private static void readFully(InputStream in, byte[] bytes) throws IOException
+	{
+		readFully(in, bytes, bytes.length);
+	}
+
+	private static void readFully(InputStream in, byte[] bytes, int length) throws IOException
+	{
+		int off = 0;
+		while (off < length)
+		{
+			int read = in.read(bytes, off, length-off);
+			if (read < 0)
+				throw new EOFException("binary network file ends early");
+			off += read;
+		}
+	}
+
+	private static int readCount(InputStream in) throws IOException
+	{
+		int value = 0;
+		for (int shift=0; shift<32; shift+=7)
+		{
+			int b = readByte(in);
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+			{
+				if (value < 0)
+					break;
+				return value;
+			}
+		}
+		throw new IOException("binary network file has a bad count");
+	}
+
+	private static int readRef(InputStream in, int nNames) throws IOException
+	{
+		int ref = readCount(in);
+		if (ref >= nNames)
+			throw new IOException("binary network file refers to name "+ref+" of "+nNames);
+		return ref;
+	}
+
+	private static double[] readDoubles(InputStream in, int count) throws IOException
+	{
+		double[] values = new double[count];
+		byte[] block = new byte[8*1024];
+		int done = 0;
+		while (done < count)
+		{
+			int n = Math.min(count-done, block.length/8);
+			readFully(in, block, n*8);
+			for (int i=0; i<n; i++)
+			{
+				long bits = 0;
+				for (int b=7; b>=0; b--)
+					bits = (bits << 8) | (block[i*8+b] & 0xff);
+				values[done+i] = Double.longBitsToDouble(bits);
+			}
+			done += n;
+		}
+		return values;
+	}
+}
@@ -0,0 +1,171 @@
+package p6_undo_redo;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Describes a single change to a node or connection in a NetworkModel.
+ *
+ * How big a node is on screen depends on the view's font, so instead of bounding
+ * boxes an event carries the names and locations from before and after the change.
+ * A view can turn those into the regions it has to repaint.  For a node that was
+ * added only the new values are set, and for one that was removed only the old ones.
+ */
+public class NetworkChangeEvent
+{
+	public enum Type {ADDED, REMOVED, MOVED, RENAMED}
+
+	private Type type;
+	private int id;
+	private int index;
+	private String oldName;
+	private String newName;
+	private double oldX;
+	private double oldY;
+	private double newX;
+	private double newY;
+	private int node1Id;
+	private int node2Id;
+	private Side side1;
+	private Side side2;
+
+	private NetworkChangeEvent(Type type, int id, int index)
+	{
+		this.type = type;
+		this.id = id;
+		this.index = index;
+		this.node1Id = -1;
+		this.node2Id = -1;
+	}
+
+	static NetworkChangeEvent nodeAdded(int id, int index, String name, double x, double y)
+	{
+		NetworkChangeEvent e = new NetworkChangeEvent(Type.ADDED, id, index);
+		e.newName = name;
+		e.newX = x;
+		e.newY = y;
+		return e;
+	}
+
+	static NetworkChangeEvent nodeRemoved(int id, int index, String name, double x, double y)
+	{
+		NetworkChangeEvent e = new NetworkChangeEvent(Type.REMOVED, id, index);
+		e.oldName = name;
+		e.oldX = x;
+		e.oldY = y;
+		return e;
+	}
+
+	static NetworkChangeEvent nodeMoved(int id, int index, String name, double oldX, double oldY, double x, double y)
+	{
+		NetworkChangeEvent e = new NetworkChangeEvent(Type.MOVED, id, index);
+		e.oldName = e.newName = name;
+		e.oldX = oldX;
+		e.oldY = oldY;
+		e.newX = x;
+		e.newY = y;
+		return e;
+	}
+
+	static NetworkChangeEvent nodeRenamed(int id, int index, String oldName, String name, double x, double y)
+	{
+		NetworkChangeEvent e = new NetworkChangeEvent(Type.RENAMED, id, index);
+		e.oldName = oldName;
+		e.newName = name;
+		e.oldX = e.newX = x;
+		e.oldY = e.newY = y;
+		return e;
+	}
+
+	static NetworkChangeEvent connectionAdded(int id, int index, int node1Id, Side side1, int node2Id, Side side2)
+	{
+		NetworkChangeEvent e = new NetworkChangeEvent(Type.ADDED, id, index);
+		e.setEnds(node1Id, side1, node2Id, side2);
+		return e;
+	}
+
+	static NetworkChangeEvent connectionRemoved(int id, int index, int node1Id, Side side1, int node2Id, Side side2)
+	{
+		NetworkChangeEvent e = new NetworkChangeEvent(Type.REMOVED, id, index);
+		e.setEnds(node1Id, side1, node2Id, side2);
+		return e;
+	}
+
+	private void setEnds(int node1Id, Side side1, int node2Id, Side side2)
+	{
+		this.node1Id = node1Id;
+		this.side1 = side1;
+		this.node2Id = node2Id;
+		this.side2 = side2;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the id of the node or connection that changed
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return the index of the node or connection in the model.  For a removal
+	 * 	this is the index it had before it was removed.
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	public String getOldName() {
+		return this.oldName;
+	}
+
+	public String getNewName() {
+		return this.newName;
+	}
+
+	public double getOldX() {
+		return this.oldX;
+	}
+
+	public double getOldY() {
+		return this.oldY;
+	}
+
+	public double getNewX() {
+		return this.newX;
+	}
+
+	public double getNewY() {
+		return this.newY;
+	}
+
+	/**
+	 * @return for a connection, the id of the node at its first end, or -1 if that end is not bound
+	 */
+	public int getNode1Id() {
+		return this.node1Id;
+	}
+
+	/**
+	 * @return for a connection, the id of the node at its second end, or -1 if that end is not bound
+	 */
+	public int getNode2Id() {
+		return this.node2Id;
+	}
+
+	/**
+	 * @return for a connection, the side of its first node that it attaches to
+	 */
+	public Side getSide1() {
+		return this.side1;
+	}
+
+	/**
+	 * @return for a connection, the side of its second node that it attaches to
+	 */
+	public Side getSide2() {
+		return this.side2;
+	}
+}
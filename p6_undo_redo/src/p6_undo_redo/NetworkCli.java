@@ -0,0 +1,294 @@
+package p6_undo_redo;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Converts, checks and draws network files without a display, for batch jobs.
+ *
+ * Usage: NetworkCli [-j workers] [-o directory] [-scale s] command files...
+ * 		convert extension	writes each file again with its extension replaced by
+ * 							extension, such as .nbin, .graphml or .dot.gz, in the
+ * 							format the extension calls for
+ * 		validate			reads each file and reports connections to nodes it
+ * 							does not have, and names shared by several nodes
+ * 		render				draws each file into a .png of the same name, s pixels
+ * 							to a unit (1 by default)
+ *
+ * Files are handled by workers threads at a time, the number of processors by
+ * default, and written next to the file they came from unless a directory is
+ * given.  One line is printed for each file, in the order the files were given.
+ * The exit status is 0 if every file succeeded, 1 if any failed and 2 if the
+ * arguments could not be understood.
+ *
+ * Runs with java.awt.headless set, and only uses the parts of AWT that draw into
+ * images, so no window system is loaded or needed.
+ */
+public class NetworkCli
+{
+	/**
+	 * The most pixels a rendered image has across or down; larger networks are
+	 * drawn at a smaller scale
+	 */
+	static final int MAX_IMAGE_SIZE = 16384;
+
+	private static final int MARGIN = 10;
+
+	private String command;
+	private String extension;
+	private File directory;
+	private double scale = 1;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private ArrayList<String> files = new ArrayList<String>();
+
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		NetworkCli cli = new NetworkCli();
+		String problem = cli.parseArguments(args);
+		if (problem != null)
+		{
+			System.err.println(problem);
+			System.err.println("Usage: NetworkCli [-j workers] [-o directory] [-scale s] (convert extension | validate | render) files...");
+			System.exit(2);
+		}
+		System.exit(cli.run() ? 0 : 1);
+	}
+
+	/**
+	 * @return what is wrong with args, or null if nothing is
+	 */
+	String parseArguments(String[] args)
+	{
+		int i = 0;
+		try {
+			for (; i<args.length && args[i].startsWith("-"); i++)
+			{
+				switch (args[i])
+				{
+				case "-j":
+					this.workers = Integer.parseInt(args[++i]);
+					if (this.workers < 1)
+						return "There must be at least one worker.";
+					break;
+				case "-o":
+					this.directory = new File(args[++i]);
+					if (!this.directory.isDirectory())
+						return "No such directory: "+this.directory;
+					break;
+				case "-scale":
+					this.scale = Double.parseDouble(args[++i]);
+					if (!(this.scale > 0))
+						return "The scale must be greater than 0.";
+					break;
+				default:
+					return "Unknown option "+args[i];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return args[i-1]+" needs a value.";
+		} catch (NumberFormatException e) {
+			return args[i-1]+" needs a number but was given "+args[i];
+		}
+
+		if (i == args.length)
+			return "Provide a command.";
+		this.command = args[i++];
+		switch (this.command)
+		{
+		case "convert":
+			if (i == args.length)
+				return "convert needs the extension to convert to.";
+			this.extension = args[i++];
+			if (!this.extension.startsWith("."))
+				this.extension = "."+this.extension;
+			break;
+		case "validate":
+		case "render":
+			break;
+		default:
+			return "Unknown command "+this.command;
+		}
+
+		for (; i<args.length; i++)
+			this.files.add(args[i]);
+		if (this.files.isEmpty())
+			return "Provide one or more files.";
+		return null;
+	}
+
+	/**
+	 * Carries out the command on every file
+	 * @return true if it succeeded for all of them
+	 */
+	boolean run()
+	{
+		//Batch jobs read each file once, so caching parsed models would only cost time
+		NetworkModelCache.setDirectory(null);
+
+		ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+		ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+		for (final String file : this.files)
+		{
+			results.add(pool.submit(new Callable<String>() {
+				@Override
+				public String call() throws IOException
+				{
+					return process(file);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		boolean ok = true;
+		for (int i=0; i<results.size(); i++)
+		{
+			try {
+				System.out.println(this.files.get(i)+": "+results.get(i).get());
+			} catch (ExecutionException e) {
+				System.out.println(this.files.get(i)+": failed: "+e.getCause().getMessage());
+				ok = false;
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Carries out the command on one file
+	 * @return a line describing the result
+	 * @throws IOException if the file could not be read or the result written, or,
+	 * 	when validating, if the file is not valid
+	 */
+	String process(String file) throws IOException
+	{
+		switch (this.command)
+		{
+		case "convert":
+			return convert(file);
+		case "validate":
+			return validate(file);
+		default:
+			return render(file);
+		}
+	}
+
+	private String convert(String file) throws IOException
+	{
+		String out = outputFile(file, this.extension);
+		NetworkModel model = new NetworkModel(file);
+		model.snapshot(out).write();
+		return "wrote "+out;
+	}
+
+	private String validate(String file) throws IOException
+	{
+		NetworkRecords records = NetworkRecords.read(file);
+		HashMap<String, Integer> named = new HashMap<String, Integer>();
+		for (int i=0; i<records.nNodes(); i++)
+		{
+			String name = records.getNodeName(i);
+			Integer count = named.get(name);
+			named.put(name, (count == null) ? 1 : count+1);
+		}
+
+		StringBuilder problems = new StringBuilder();
+		int missing = 0;
+		for (int i=0; i<records.nConnections(); i++)
+		{
+			for (String end : new String[] {records.getConnectionNode1(i), records.getConnectionNode2(i)})
+			{
+				if (!named.containsKey(end))
+				{
+					missing++;
+					problems.append("\n\tconnection "+i+" names \""+end+"\", which is not a node");
+				}
+			}
+		}
+		int shared = 0;
+		for (String name : named.keySet())
+		{
+			if (named.get(name) > 1)
+			{
+				shared++;
+				problems.append("\n\t"+named.get(name)+" nodes are named \""+name+"\"; connections go to the first");
+			}
+		}
+
+		String summary = records.nNodes()+" nodes, "+records.nConnections()+" connections";
+		if (missing > 0)
+			throw new IOException(missing+" missing nodes ("+summary+")"+problems);
+		if (shared > 0)
+			return "valid, with "+shared+" shared names ("+summary+")"+problems;
+		return "valid ("+summary+")";
+	}
+
+	private String render(String file) throws IOException
+	{
+		String out = outputFile(file, ".png");
+		NetworkModel model = new NetworkModel(file);
+
+		//The metrics of the font on an image, which need no display
+		Graphics2D measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		NetworkRenderer renderer = new NetworkRenderer(model, NetworkRenderer.FONT, measure.getFontMetrics(NetworkRenderer.FONT));
+		measure.dispose();
+
+		Rectangle2D bounds = renderer.getBounds();
+		if (bounds == null)
+			bounds = new Rectangle2D.Double();
+		double s = this.scale;
+		double largest = Math.max(bounds.getWidth(), bounds.getHeight())*s;
+		if (largest > MAX_IMAGE_SIZE-2*MARGIN)
+			s = s*(MAX_IMAGE_SIZE-2*MARGIN)/largest;
+		int width = (int) Math.ceil(bounds.getWidth()*s)+2*MARGIN;
+		int height = (int) Math.ceil(bounds.getHeight()*s)+2*MARGIN;
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(Color.white);
+			g.fillRect(0, 0, width, height);
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.translate(MARGIN, MARGIN);
+			g.scale(s, s);
+			g.translate(-bounds.getX(), -bounds.getY());
+			renderer.paint(g);
+		} finally {
+			g.dispose();
+		}
+		if (!ImageIO.write(image, "png", new File(out)))
+			throw new IOException("no PNG writer is available");
+		return "drew "+width+"x"+height+" "+out;
+	}
+
+	/**
+	 * @return the name of the file to write file's result to, with extension in place
+	 * 	of file's own
+	 */
+	private String outputFile(String file, String extension)
+	{
+		File f = new File(NetworkCompression.withoutCompressedExtension(file));
+		String name = f.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		File dir = (this.directory != null) ? this.directory : f.getAbsoluteFile().getParentFile();
+		return new File(dir, name+extension).getPath();
+	}
+}
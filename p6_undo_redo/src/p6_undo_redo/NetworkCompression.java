@@ -0,0 +1,92 @@
+package p6_undo_redo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens network files that may be gzip compressed.
+ *
+ * Compressed files are recognised when read by the gzip magic bytes, so a file
+ * in either format opens whatever its name, and are written when saved under a
+ * name ending in EXTENSION.  Data is compressed and decompressed as it streams
+ * through, so memory use does not depend on the size of the file.
+ */
+class NetworkCompression
+{
+	static final String EXTENSION = ".gz";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * @return true if the file at path starts with the gzip magic bytes
+	 */
+	static boolean isCompressed(String path) throws IOException
+	{
+		InputStream in = new FileInputStream(path);
+		try {
+			return in.read() == 0x1f && in.read() == 0x8b;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return true if a model saved to path should be compressed
+	 */
+	static boolean hasCompressedExtension(String path)
+	{
+		return path.toLowerCase().endsWith(EXTENSION);
+	}
+
+	/**
+	 * @return path without EXTENSION, so that the extension before it can be checked
+	 */
+	static String withoutCompressedExtension(String path)
+	{
+		return hasCompressedExtension(path) ? path.substring(0, path.length()-EXTENSION.length()) : path;
+	}
+
+	/**
+	 * @return a buffered stream of the contents of the file at path, decompressed
+	 * 	if it is compressed
+	 */
+	static InputStream openInput(String path) throws IOException
+	{
+		return wrapInput(new FileInputStream(path), path);
+	}
+
+	/**
+	 * @param in a stream of the raw bytes of the file at path
+	 * @return a buffered stream of the file's contents, decompressed if it is compressed
+	 */
+	static InputStream wrapInput(InputStream in, String path) throws IOException
+	{
+		try {
+			if (isCompressed(path))
+				return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+			return new BufferedInputStream(in, BUFFER_SIZE);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a buffered stream that writes to path, compressing if the name of
+	 * 	path ends in EXTENSION
+	 */
+	static OutputStream openOutput(String path) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(path);
+		if (hasCompressedExtension(path))
+			return new BufferedOutputStream(new GZIPOutputStream(out, BUFFER_SIZE), BUFFER_SIZE);
+		return new BufferedOutputStream(out, BUFFER_SIZE);
+	}
+}
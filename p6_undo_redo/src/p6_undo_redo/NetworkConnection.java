@@ -2,6 +2,11 @@ package p6_undo_redo;
 
 /**
 * This class describes a connection between two network nodes
+* 
+* Once a connection has been added to a NetworkModel its node ids and sides live
+* in the model's connection store, and this object reads through to it.  The fields
+* below hold the connection while it is not part of a model, and the names of
+* any end that is not bound to a node.
 */
 public class NetworkConnection
 {
@@ -10,8 +15,13 @@ public class NetworkConnection
 	
 	private String node1;
 	private String node2;
+	private int node1Id;
+	private int node2Id;
 	private Side side1;
 	private Side side2;
+	private NetworkModel networkModel;
+	private ConnectionStore store;
+	private int id = -1;
 	
 	/**
 	* Creates a new connection
@@ -26,6 +36,30 @@ public class NetworkConnection
 		this.side1 = side1;
 		this.node2 = node2;
 		this.side2 = side2;
+		this.node1Id = -1;
+		this.node2Id = -1;
+	}
+	
+	/**
+	* Creates a new connection between two nodes that are already in a model.
+	* Unlike connecting by name, this attaches to these exact nodes even if
+	* other nodes share their names.
+	*/
+	public NetworkConnection(NetworkNode node1, Side side1, NetworkNode node2, Side side2)
+	{
+		this(node1.getName(), side1, node2.getName(), side2);
+		this.node1Id = node1.getId();
+		this.node2Id = node2.getId();
+	}
+	
+	/**
+	* Creates a view of a connection that is already in store
+	*/
+	NetworkConnection(NetworkModel network, ConnectionStore store, int id)
+	{
+		this.networkModel = network;
+		this.store = store;
+		this.id = id;
 	}
 	
 	/**
@@ -33,12 +67,18 @@ public class NetworkConnection
 	 */
 	public String getNode1()
 	{
-		return this.node1;
+		String name = getNodeName(getNode1Id());
+		return (name != null) ? name : this.node1;
 	}
 	
-	public void setNode1(String node1)
+	/**
+	 * @return the id of the first node, or -1 if it is not in the model
+	 */
+	public int getNode1Id()
 	{
-		this.node1 = node1;
+		if (this.store != null)
+			return store.getNode1(store.positionOf(id));
+		return this.node1Id;
 	}
 	
 	/**
@@ -46,12 +86,18 @@ public class NetworkConnection
 	 */
 	public String getNode2()
 	{
-		return this.node2;
+		String name = getNodeName(getNode2Id());
+		return (name != null) ? name : this.node2;
 	}
 	
-	public void setNode2(String node2)
+	/**
+	 * @return the id of the second node, or -1 if it is not in the model
+	 */
+	public int getNode2Id()
 	{
-		this.node2 = node2;
+		if (this.store != null)
+			return store.getNode2(store.positionOf(id));
+		return this.node2Id;
 	}
 	
 	/**
@@ -59,6 +105,8 @@ public class NetworkConnection
 	 */
 	public Side getSide1()
 	{
+		if (this.store != null)
+			return store.getSide1(store.positionOf(id));
 		return this.side1;
 	}
 	
@@ -67,14 +115,87 @@ public class NetworkConnection
 	 */
 	public Side getSide2()
 	{
+		if (this.store != null)
+			return store.getSide2(store.positionOf(id));
 		return this.side2;
 	}
 	
+	/**
+	 * @return the id this connection was given when it was added to its network,
+	 * 	or -1 if it has never been added to one
+	 */
+	int getId()
+	{
+		return this.id;
+	}
+	
+	private String getNodeName(int nodeId)
+	{
+		if (this.networkModel == null)
+			return null;
+		int i = this.networkModel.getNodeIndexById(nodeId);
+		return (i < 0) ? null : this.networkModel.getNodeName(i);
+	}
+	
+	/**
+	 * Moves this connection into store, where it has the given id.  The names
+	 * are kept for any end that the store does not bind to a node.
+	 */
+	void attach(NetworkModel network, ConnectionStore store, int id)
+	{
+		this.networkModel = network;
+		this.store = store;
+		this.id = id;
+	}
+	
+	/**
+	 * Takes back a copy of the connection when it is removed from its store,
+	 * remembering the current node names so it can be added back by name.
+	 * The ids are kept so that re-adding it to the same model finds the same nodes.
+	 */
+	void detach()
+	{
+		this.node1 = getNode1();
+		this.node2 = getNode2();
+		this.node1Id = getNode1Id();
+		this.node2Id = getNode2Id();
+		this.side1 = getSide1();
+		this.side2 = getSide2();
+		this.networkModel = null;
+		this.store = null;
+	}
+	
+	/**
+	 * @return true if this connection lives in store
+	 */
+	boolean isIn(ConnectionStore store)
+	{
+		return this.store != null && this.store == store;
+	}
+	
 	/**
 	 * @return "C node1 side1 node2 side2"
 	 */
 	public String toString()
 	{
-		return "C \""+node1+"\" "+this.side1+" \""+node2+"\" "+this.side2;
+		return format(getNode1(), getSide1(), getNode2(), getSide2());
+	}
+	
+	/**
+	 * @return the "C node1 side1 node2 side2" line for a connection with these values
+	 */
+	static String format(String node1, Side side1, String node2, Side side2)
+	{
+		return format(new StringBuilder(), node1, side1, node2, side2).toString();
+	}
+	
+	/**
+	 * Appends the "C node1 side1 node2 side2" line for a connection with these values to sb
+	 * @return sb
+	 */
+	static StringBuilder format(StringBuilder sb, String node1, Side side1, String node2, Side side2)
+	{
+		return sb.append("C \"").append(node1).append("\" ").append(side1.name())
+				 .append(" \"").append(node2).append("\" ").append(side2.name());
 	}
-}
\ No newline at end of file
+}
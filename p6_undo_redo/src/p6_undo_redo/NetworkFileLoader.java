@@ -0,0 +1,300 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads large network description files on several threads.
+ *
+ * The file is split at line boundaries into chunks, each of which is memory mapped
+ * and parsed on its own thread.  The nodes are then added to the model in file
+ * order, after which the node names of every connection are looked up in parallel
+ * and the connections added in file order.  Ids and bindings come out the same as
+ * when the file is read by a single NetworkFileParser: a connection binds to the
+ * first node in the file with the name it refers to.
+ *
+ * A NetworkLoader instead has the chunks handed to it one at a time, in file
+ * order, as they are parsed, and adds them to the model itself.
+ */
+class NetworkFileLoader
+{
+	/**
+	 * Files at least this big are worth splitting up
+	 */
+	static final long PARALLEL_THRESHOLD = 16L << 20;
+
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	private static final int MAX_CHUNK_SIZE = 64 << 20;
+
+	/**
+	 * Reads fileName into model, which should be empty.
+	 * @param chunkSize the size of the pieces the file is split into, or 0 to
+	 * 	choose one from the file size and the number of processors
+	 */
+	static void load(final NetworkModel model, String fileName, int chunkSize) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			FileChannel channel = file.getChannel();
+			long[] bounds = splitAtLines(channel, chunkSize > 0 ? chunkSize : chooseChunkSize(channel.size(), pool.getParallelism()));
+
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			for (int i=0; i<bounds.length-1; i++)
+				chunks.add(new Chunk(channel, bounds[i], bounds[i+1]));
+
+			invokeAll(pool, chunks, new Step() {
+				@Override
+				public void run(Chunk c) throws IOException {
+					c.parse();
+				}
+			});
+
+			for (Chunk c : chunks)
+				c.appendNodes(model);
+
+			invokeAll(pool, chunks, new Step() {
+				@Override
+				public void run(Chunk c) {
+					c.resolveConnections(model);
+				}
+			});
+
+			for (Chunk c : chunks)
+				c.appendConnections(model);
+		} finally {
+			pool.shutdown();
+			file.close();
+		}
+	}
+
+	/**
+	 * Handed the records of each chunk of a file in turn
+	 */
+	interface ChunkHandler
+	{
+		/**
+		 * @param end the offset in the file just past the chunk
+		 */
+		void parsed(NetworkRecords records, long end) throws IOException;
+	}
+
+	/**
+	 * Parses fileName on several threads, passing the records of each chunk to
+	 * handler in file order as soon as it and those before it have been parsed.
+	 * If handler throws, the chunks not yet parsed are abandoned.
+	 * @param chunkSize the size of the pieces the file is split into
+	 */
+	static void parse(String fileName, int chunkSize, ChunkHandler handler) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			FileChannel channel = file.getChannel();
+			long[] bounds = splitAtLines(channel, chunkSize);
+
+			Step parse = new Step() {
+				@Override
+				public void run(Chunk c) throws IOException {
+					c.parse();
+				}
+			};
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			List<Future<Void>> parsed = new ArrayList<Future<Void>>();
+			for (int i=0; i<bounds.length-1; i++)
+			{
+				Chunk c = new Chunk(channel, bounds[i], bounds[i+1]);
+				chunks.add(c);
+				parsed.add(pool.submit(task(c, parse)));
+			}
+
+			for (int i=0; i<chunks.size(); i++)
+			{
+				try {
+					parsed.get(i).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Loading was interrupted", e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				}
+				checkFailure(chunks, i);
+				handler.parsed(chunks.get(i), chunks.get(i).end);
+			}
+		} finally {
+			pool.shutdownNow();
+			file.close();
+		}
+	}
+
+	private static int chooseChunkSize(long fileSize, int parallelism)
+	{
+		long size = fileSize/(parallelism*4L);
+		return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+	}
+
+	/**
+	 * @return the offsets at which chunks start, followed by the file size.  Every
+	 * 	chunk but the last ends just after a newline.
+	 */
+	private static long[] splitAtLines(FileChannel channel, int chunkSize) throws IOException
+	{
+		long size = channel.size();
+		long[] bounds = new long[(int) (size/chunkSize)+2];
+		int n = 0;
+		bounds[n++] = 0;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long start = 0;
+		while (size-start > chunkSize)
+		{
+			long end = nextLineStart(channel, start+chunkSize, probe);
+			if (end >= size)
+				break;
+			bounds[n++] = end;
+			start = end;
+		}
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * @return the offset just after the first newline at or after pos, or the file size
+	 */
+	private static long nextLineStart(FileChannel channel, long pos, ByteBuffer probe) throws IOException
+	{
+		while (true)
+		{
+			probe.clear();
+			int read = channel.read(probe, pos);
+			if (read <= 0)
+				return channel.size();
+			for (int i=0; i<read; i++)
+			{
+				if (probe.get(i) == '\n')
+					return pos+i+1;
+			}
+			pos += read;
+		}
+	}
+
+	private interface Step
+	{
+		void run(Chunk c) throws IOException;
+	}
+
+	/**
+	 * Runs step on every chunk in pool and waits for them all.  If any fail, the
+	 * failure from the earliest chunk in the file is thrown.
+	 */
+	private static void invokeAll(ForkJoinPool pool, List<Chunk> chunks, final Step step) throws IOException
+	{
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (Chunk c : chunks)
+			tasks.add(task(c, step));
+		pool.invokeAll(tasks);
+
+		for (int i=0; i<chunks.size(); i++)
+			checkFailure(chunks, i);
+	}
+
+	/**
+	 * @return a task running step on c that keeps any failure in c
+	 */
+	private static Callable<Void> task(final Chunk c, final Step step)
+	{
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				try {
+					step.run(c);
+				} catch (IOException | RuntimeException e) {
+					c.failure = e;
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Throws the failure, if any, of chunk index
+	 */
+	private static void checkFailure(List<Chunk> chunks, int index) throws IOException
+	{
+		Exception e = chunks.get(index).failure;
+		if (e instanceof NetworkFormatException)
+			throw relocate((NetworkFormatException) e, chunks, index);
+		if (e instanceof IOException)
+			throw (IOException) e;
+		if (e != null)
+			throw (RuntimeException) e;
+	}
+
+	/**
+	 * Chunks are parsed as if each started on line 1.  Moves an error in chunk
+	 * index to its line in the whole file.
+	 */
+	private static NetworkFormatException relocate(NetworkFormatException e, List<Chunk> chunks, int index)
+	{
+		int lines = 0;
+		for (int i=0; i<index; i++)
+			lines += chunks.get(i).countLines();
+		return e.movedDown(lines);
+	}
+
+	/**
+	 * The records of one piece of the file
+	 */
+	private static class Chunk extends NetworkRecords
+	{
+		private FileChannel channel;
+		private long start;
+		private long end;
+
+		private Exception failure;
+
+		Chunk(FileChannel channel, long start, long end)
+		{
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		private MappedByteBuffer map() throws IOException
+		{
+			return this.channel.map(FileChannel.MapMode.READ_ONLY, this.start, this.end-this.start);
+		}
+
+		void parse() throws IOException
+		{
+			InputStreamReader in = new InputStreamReader(new ByteBufferInputStream(map()), "UTF-8");
+			new NetworkFileParser(in).parse(this);
+		}
+
+		int countLines()
+		{
+			try {
+				MappedByteBuffer buf = map();
+				int lines = 0;
+				while (buf.hasRemaining())
+				{
+					if (buf.get() == '\n')
+						lines++;
+				}
+				return lines;
+			} catch (IOException e) {
+				return 0;
+			}
+		}
+	}
+}
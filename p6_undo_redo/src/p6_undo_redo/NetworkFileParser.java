@@ -0,0 +1,384 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Reads the records of a network description file one character at a time.
+ *
+ * Each line is either a node record
+ * 		N x y "name"
+ * or a connection record
+ * 		C "node1" side1 "node2" side2
+ * Other lines are ignored.  Records are passed to a RecordHandler as they are read,
+ * so a file is never held in memory as lines or split into arrays of tokens.
+ *
+ * A JournalHandler is also given the edit records of a NetworkJournal
+ * 		M index x y			node moved
+ * 		R index "name"		node renamed
+ * 		-N index			node removed, with its connections
+ * 		-C index			connection removed
+ */
+class NetworkFileParser
+{
+	/**
+	 * Receives the records of a file in the order they appear
+	 */
+	interface RecordHandler
+	{
+		void node(String name, double x, double y);
+		void connection(String node1, Side side1, String node2, Side side2);
+	}
+
+	/**
+	 * Receives the records of a journal.  Indexes are positions in the model as it
+	 * is when the record is replayed; a handler throws IndexOutOfBoundsException for
+	 * one that is out of range.
+	 */
+	interface JournalHandler extends RecordHandler
+	{
+		void nodeMoved(int index, double x, double y);
+		void nodeRenamed(int index, String name);
+		void nodeRemoved(int index);
+		void connectionRemoved(int index);
+	}
+
+	private static final int EOF = -1;
+
+	//Every power of ten that a double holds exactly
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private Reader in;
+	private char[] buf;
+	private int pos;
+	private int limit;
+
+	//The current character, or EOF, and where it is in the file
+	private int c;
+	private int line = 1;
+	private int column = 1;
+
+	private char[] token = new char[64];
+	private int tokenLength;
+
+	NetworkFileParser(Reader in)
+	{
+		this(in, 1 << 16);
+	}
+
+	NetworkFileParser(Reader in, int bufferSize)
+	{
+		this.in = in;
+		this.buf = new char[bufferSize];
+	}
+
+	/**
+	 * Reads the whole file, passing each record to handler
+	 * @throws NetworkFormatException if a record is malformed
+	 */
+	public void parse(RecordHandler handler) throws IOException
+	{
+		this.c = read();
+		while (this.c != EOF)
+		{
+			if (this.c == 'N')
+			{
+				advance();
+				parseNode(handler);
+			}
+			else if (this.c == 'C')
+			{
+				advance();
+				parseConnection(handler);
+			}
+			else if (handler instanceof JournalHandler && (this.c == 'M' || this.c == 'R' || this.c == '-'))
+				parseEdit((JournalHandler) handler);
+			else
+				skipLine();
+
+			if (this.c == '\n')
+				advance();
+		}
+	}
+
+	private void parseNode(RecordHandler handler) throws IOException
+	{
+		double x = readNumber();
+		double y = readNumber();
+		String name = readName();
+		expectEndOfLine();
+		handler.node(name, x, y);
+	}
+
+	private void parseConnection(RecordHandler handler) throws IOException
+	{
+		String node1 = readName();
+		Side side1 = readSide();
+		String node2 = readName();
+		Side side2 = readSide();
+		expectEndOfLine();
+		handler.connection(node1, side1, node2, side2);
+	}
+
+	private void parseEdit(JournalHandler handler) throws IOException
+	{
+		int startLine = this.line;
+		int startColumn = this.column;
+		int kind = this.c;
+		advance();
+		if (kind == '-')
+		{
+			kind = this.c;
+			if (kind != 'N' && kind != 'C')
+				throw error("expected -N or -C", startLine, startColumn);
+			advance();
+		}
+
+		int index = readIndex();
+		try {
+			if (kind == 'M')
+			{
+				double x = readNumber();
+				double y = readNumber();
+				expectEndOfLine();
+				handler.nodeMoved(index, x, y);
+			}
+			else if (kind == 'R')
+			{
+				String name = readName();
+				expectEndOfLine();
+				handler.nodeRenamed(index, name);
+			}
+			else
+			{
+				expectEndOfLine();
+				if (kind == 'N')
+					handler.nodeRemoved(index);
+				else
+					handler.connectionRemoved(index);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw error("no "+(kind == 'C' ? "connection" : "node")+" at index "+index, startLine, startColumn);
+		}
+	}
+
+	private int readIndex() throws IOException
+	{
+		skipSpaces();
+		int startLine = this.line;
+		int startColumn = this.column;
+		readWord();
+		if (this.tokenLength == 0 || this.tokenLength > 9)
+			throw error("expected an index", startLine, startColumn);
+		int index = 0;
+		for (int i=0; i<this.tokenLength; i++)
+		{
+			char ch = this.token[i];
+			if (ch < '0' || ch > '9')
+				throw error("expected an index", startLine, startColumn);
+			index = index*10+(ch-'0');
+		}
+		return index;
+	}
+
+	private int read() throws IOException
+	{
+		while (this.pos == this.limit)
+		{
+			this.pos = 0;
+			this.limit = this.in.read(this.buf, 0, this.buf.length);
+			if (this.limit < 0)
+			{
+				this.limit = 0;
+				return EOF;
+			}
+		}
+		return this.buf[this.pos++];
+	}
+
+	private void advance() throws IOException
+	{
+		if (this.c == '\n')
+		{
+			this.line++;
+			this.column = 1;
+		}
+		else
+			this.column++;
+		this.c = read();
+	}
+
+	private void skipLine() throws IOException
+	{
+		while (this.c != '\n' && this.c != EOF)
+			advance();
+	}
+
+	private void skipSpaces() throws IOException
+	{
+		while (this.c == ' ' || this.c == '\t' || this.c == '\r')
+			advance();
+	}
+
+	private void expectEndOfLine() throws IOException
+	{
+		skipSpaces();
+		if (this.c != '\n' && this.c != EOF)
+			throw error("unexpected '"+(char)this.c+"' after the end of the record", this.line, this.column);
+	}
+
+	private boolean endsWord(int ch)
+	{
+		return ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n' || ch == '"' || ch == EOF;
+	}
+
+	private void appendToken(int ch)
+	{
+		if (this.tokenLength == this.token.length)
+		{
+			char[] bigger = new char[this.token.length*2];
+			System.arraycopy(this.token, 0, bigger, 0, this.tokenLength);
+			this.token = bigger;
+		}
+		this.token[this.tokenLength++] = (char) ch;
+	}
+
+	/**
+	 * Reads the characters up to the next space, quote or end of line into token
+	 */
+	private void readWord() throws IOException
+	{
+		this.tokenLength = 0;
+		while (!endsWord(this.c))
+		{
+			appendToken(this.c);
+			advance();
+		}
+	}
+
+	private double readNumber() throws IOException
+	{
+		skipSpaces();
+		int startLine = this.line;
+		int startColumn = this.column;
+		readWord();
+		if (this.tokenLength == 0)
+			throw error("expected a number", startLine, startColumn);
+
+		double value = parseSimpleDecimal();
+		if (!Double.isNaN(value))
+			return value;
+		String text = new String(this.token, 0, this.tokenLength);
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw error("expected a number but found \""+text+"\"", startLine, startColumn);
+		}
+	}
+
+	/**
+	 * Parses token when it is a plain decimal such as -12.5 with few enough digits
+	 * that one exact division gives the correctly rounded double.
+	 * @return the value, or NaN if token needs the general parser
+	 */
+	private double parseSimpleDecimal()
+	{
+		int i = 0;
+		boolean negative = false;
+		if (this.token[0] == '-' || this.token[0] == '+')
+		{
+			negative = this.token[0] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for (; i<this.tokenLength; i++)
+		{
+			char ch = this.token[i];
+			if (ch >= '0' && ch <= '9')
+			{
+				if (++digits > 15)
+					return Double.NaN;
+				mantissa = mantissa*10+(ch-'0');
+				if (point)
+					scale++;
+			}
+			else if (ch == '.' && !point)
+				point = true;
+			else
+				return Double.NaN;
+		}
+		if (digits == 0)
+			return Double.NaN;
+
+		double value = mantissa/POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a quoted name, dropping spaces at either end as the name is stored
+	 */
+	private String readName() throws IOException
+	{
+		skipSpaces();
+		int startLine = this.line;
+		int startColumn = this.column;
+		if (this.c != '"')
+			throw error("expected a quoted name", startLine, startColumn);
+		advance();
+
+		this.tokenLength = 0;
+		while (this.c != '"')
+		{
+			if (this.c == '\n' || this.c == EOF)
+				throw error("name is missing its closing quote", startLine, startColumn);
+			appendToken(this.c);
+			advance();
+		}
+		advance();
+
+		int start = 0;
+		int end = this.tokenLength;
+		while (start < end && this.token[start] <= ' ')
+			start++;
+		while (end > start && this.token[end-1] <= ' ')
+			end--;
+		return new String(this.token, start, end-start);
+	}
+
+	private Side readSide() throws IOException
+	{
+		skipSpaces();
+		int startLine = this.line;
+		int startColumn = this.column;
+		readWord();
+		if (this.tokenLength == 1)
+		{
+			switch (this.token[0])
+			{
+			case 'T':
+				return Side.T;
+			case 'B':
+				return Side.B;
+			case 'L':
+				return Side.L;
+			case 'R':
+				return Side.R;
+			}
+		}
+		throw error("expected a side (T, B, L or R)", startLine, startColumn);
+	}
+
+	private NetworkFormatException error(String message, int line, int column)
+	{
+		return new NetworkFormatException(message, line, column);
+	}
+}
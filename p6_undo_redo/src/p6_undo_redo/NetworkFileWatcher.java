@@ -0,0 +1,332 @@
+package p6_undo_redo;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Watches a model's file and, when another program changes it, brings the model
+ * up to date with the file.
+ *
+ * The file is read on the watching thread.  The model is then compared with it
+ * on the event dispatch thread and only the differences are applied, with
+ * listeners notified once for the lot:
+ * 		nodes are matched by name, in order among nodes with the same name, and a
+ * 			matched node at a new location is moved
+ * 		a node left over in the model at the same location as one left over in
+ * 			the file is renamed
+ * 		other nodes left over in the model are removed and those in the file added
+ * 		connections are matched by the names and sides of their ends, and those
+ * 			left over are removed or added
+ * Nodes and connections that survive keep their ids, so views keep their
+ * selection, and the model's transformations are not touched.  The file is taken
+ * to be right: edits not yet saved are overwritten where the file differs.
+ *
+ * The model's own saves are recognised by the file's size and time and ignored.
+ * A change that arrives while the model is being saved waits for the save to
+ * finish, and the file is then read again, as the save may have replaced it.
+ */
+class NetworkFileWatcher
+{
+	/**
+	 * How long the file must go without changing before it is read, so that a file
+	 * is not read while another program is part way through writing it
+	 */
+	static final long SETTLE_MILLIS = 200;
+
+	/**
+	 * How often to look again whether a save that held up a change is over
+	 */
+	static final int RETRY_MILLIS = 50;
+
+	private NetworkModel model;
+	private String fileName;
+	private WatchService service;
+	private Thread thread;
+
+	//Only used on the event dispatch thread
+	private long writtenSize = -1;
+	private long writtenTime = -1;
+	private boolean closed;
+
+	NetworkFileWatcher(NetworkModel model, String fileName) throws IOException
+	{
+		this.model = model;
+		this.fileName = fileName;
+		fileWritten();
+
+		Path dir = Paths.get(fileName).toAbsolutePath().getParent();
+		this.service = FileSystems.getDefault().newWatchService();
+		dir.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		this.thread = new Thread("watching "+fileName) {
+			@Override
+			public void run()
+			{
+				watch();
+			}
+		};
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stops watching the file
+	 */
+	void close()
+	{
+		this.closed = true;
+		try {
+			this.service.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Called when the model has written its file, so that the change is not
+	 * taken for one made by another program
+	 */
+	void fileWritten()
+	{
+		File f = new File(this.fileName);
+		this.writtenSize = f.length();
+		this.writtenTime = f.lastModified();
+	}
+
+	private void watch()
+	{
+		Path name = Paths.get(this.fileName).getFileName();
+		try {
+			while (true)
+			{
+				WatchKey key = this.service.take();
+				boolean changed = isFileChanged(key, name);
+				//Wait for the file to settle, gathering the events of the rest of the write
+				while ((key = this.service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+					changed |= isFileChanged(key, name);
+				if (changed)
+					read();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//Stopped
+		}
+	}
+
+	private boolean isFileChanged(WatchKey key, Path name)
+	{
+		boolean changed = false;
+		for (WatchEvent<?> e : key.pollEvents())
+		{
+			if (e.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(e.context()))
+				changed = true;
+		}
+		key.reset();
+		return changed;
+	}
+
+	private void read()
+	{
+		File f = new File(this.fileName);
+		final long size = f.length();
+		final long time = f.lastModified();
+		if (!f.isFile())
+			return;
+		final NetworkRecords records;
+		try {
+			records = NetworkRecords.read(this.fileName);
+		} catch (IOException e) {
+			//Most likely still being written; the next change is picked up
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run()
+			{
+				if (size == writtenSize && time == writtenTime)
+					return;
+				if (model.isSaving())
+				{
+					readAfterSave();
+					return;
+				}
+				apply(records);
+				writtenSize = size;
+				writtenTime = time;
+			}
+		});
+	}
+
+	/**
+	 * Waits on the event dispatch thread for the model's saves to finish, then
+	 * reads the file again on a thread of its own
+	 */
+	private void readAfterSave()
+	{
+		Timer retry = new Timer(RETRY_MILLIS, new ActionListener() {
+			public void actionPerformed(ActionEvent e)
+			{
+				if (closed)
+					return;
+				if (model.isSaving())
+				{
+					readAfterSave();
+					return;
+				}
+				Thread reader = new Thread("rereading "+fileName) {
+					@Override
+					public void run()
+					{
+						read();
+					}
+				};
+				reader.setDaemon(true);
+				reader.start();
+			}
+		});
+		retry.setRepeats(false);
+		retry.start();
+	}
+
+	/**
+	 * Makes the model hold what records hold, changing only what differs
+	 */
+	void apply(NetworkRecords records)
+	{
+		NetworkModel m = this.model;
+		m.suspendNotifications();
+		try {
+			applyNodes(records);
+			applyConnections(records);
+			m.fileReloaded();
+		} finally {
+			m.resumeNotifications();
+		}
+	}
+
+	private void applyNodes(NetworkRecords records)
+	{
+		NetworkModel m = this.model;
+		HashMap<String, ArrayDeque<Integer>> byName = new HashMap<String, ArrayDeque<Integer>>();
+		for (int i=0; i<records.nNodes(); i++)
+			queue(byName, records.getNodeName(i), i);
+
+		boolean[] matched = new boolean[records.nNodes()];
+		ArrayList<Integer> leftOver = new ArrayList<Integer>();
+		for (int i=0; i<m.nNodes(); i++)
+		{
+			ArrayDeque<Integer> q = byName.get(m.getNodeName(i));
+			if (q == null || q.isEmpty())
+			{
+				leftOver.add(i);
+				continue;
+			}
+			int r = q.poll();
+			matched[r] = true;
+			moveIfNeeded(i, records.getNodeX(r), records.getNodeY(r));
+		}
+
+		//A node that kept its place but not its name was renamed
+		HashMap<String, ArrayDeque<Integer>> byLocation = new HashMap<String, ArrayDeque<Integer>>();
+		for (int i : leftOver)
+			queue(byLocation, location(m.getNodeX(i), m.getNodeY(i)), i);
+		ArrayList<Integer> removed = new ArrayList<Integer>();
+		for (int r=0; r<records.nNodes(); r++)
+		{
+			if (matched[r])
+				continue;
+			ArrayDeque<Integer> q = byLocation.get(location(records.getNodeX(r), records.getNodeY(r)));
+			if (q != null && !q.isEmpty())
+			{
+				m.getNode(q.poll()).setName(records.getNodeName(r));
+				matched[r] = true;
+			}
+		}
+		for (ArrayDeque<Integer> q : byLocation.values())
+			removed.addAll(q);
+
+		//Remove from the end so the indexes still to go stay put
+		Collections.sort(removed);
+		for (int k=removed.size()-1; k>=0; k--)
+			m.removeNode((int) removed.get(k));
+		for (int r=0; r<records.nNodes(); r++)
+		{
+			if (!matched[r])
+				m.appendNode(records.getNodeName(r), records.getNodeX(r), records.getNodeY(r));
+		}
+	}
+
+	private void moveIfNeeded(int i, double x, double y)
+	{
+		if (this.model.getNodeX(i) != x || this.model.getNodeY(i) != y)
+			this.model.getNode(i).setLocation(x, y);
+	}
+
+	private void applyConnections(NetworkRecords records)
+	{
+		NetworkModel m = this.model;
+		HashMap<String, ArrayDeque<Integer>> byEnds = new HashMap<String, ArrayDeque<Integer>>();
+		for (int i=0; i<records.nConnections(); i++)
+			queue(byEnds, ends(records.getConnectionNode1(i), records.getConnectionSide1(i),
+							   records.getConnectionNode2(i), records.getConnectionSide2(i)), i);
+
+		boolean[] matched = new boolean[records.nConnections()];
+		ArrayList<Integer> removed = new ArrayList<Integer>();
+		for (int i=0; i<m.nConnections(); i++)
+		{
+			ArrayDeque<Integer> q = byEnds.get(ends(m.getConnectionNode1(i), m.getConnectionSide1(i),
+													 m.getConnectionNode2(i), m.getConnectionSide2(i)));
+			if (q == null || q.isEmpty())
+				removed.add(i);
+			else
+				matched[q.poll()] = true;
+		}
+
+		for (int k=removed.size()-1; k>=0; k--)
+			m.removeConnection((int) removed.get(k));
+		for (int r=0; r<records.nConnections(); r++)
+		{
+			if (!matched[r])
+				m.appendConnection(records.getConnectionNode1(r), records.getConnectionSide1(r),
+								   records.getConnectionNode2(r), records.getConnectionSide2(r));
+		}
+	}
+
+	private static void queue(HashMap<String, ArrayDeque<Integer>> map, String key, int i)
+	{
+		ArrayDeque<Integer> q = map.get(key);
+		if (q == null)
+		{
+			q = new ArrayDeque<Integer>();
+			map.put(key, q);
+		}
+		q.add(i);
+	}
+
+	private static String location(double x, double y)
+	{
+		return x+" "+y;
+	}
+
+	private static String ends(String node1, Side side1, String node2, Side side2)
+	{
+		return node1+'\0'+side1+'\0'+node2+'\0'+side2;
+	}
+}
@@ -0,0 +1,183 @@
+package p6_undo_redo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a NetworkSnapshot in the text format.
+ *
+ * Nodes and connections are split into ranges of records.  Each range is
+ * formatted and encoded into one byte buffer, on several threads when there are
+ * enough records to be worth it, and the buffers are then written in order with
+ * a single gathering write.  Each thread reuses one StringBuilder and one encoder
+ * for every range it formats.  The bytes are the same as
+ * those printed line by line through a PrintWriter.  Compressed files are instead
+ * formatted a range at a time and streamed through the compressor.
+ */
+class NetworkFileWriter
+{
+	private static final int RECORDS_PER_CHUNK = 16384;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private NetworkSnapshot snapshot;
+	private String lineSeparator = System.getProperty("line.separator");
+
+	//One of each for every thread formatting ranges of this snapshot
+	private ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue()
+		{
+			return new StringBuilder(RECORDS_PER_CHUNK*48);
+		}
+	};
+	private ThreadLocal<CharsetEncoder> encoders = new ThreadLocal<CharsetEncoder>() {
+		@Override
+		protected CharsetEncoder initialValue()
+		{
+			return UTF8.newEncoder()
+					   .onMalformedInput(CodingErrorAction.REPLACE)
+					   .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+
+	NetworkFileWriter(NetworkSnapshot snapshot)
+	{
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Writes the snapshot to path.  Paths ending in NetworkCompression.EXTENSION
+	 * are compressed.
+	 */
+	void write(String path) throws IOException
+	{
+		if (NetworkCompression.hasCompressedExtension(path))
+		{
+			writeCompressed(path);
+			return;
+		}
+		ByteBuffer[] buffers = format(chunks());
+
+		FileOutputStream out = new FileOutputStream(path);
+		try {
+			FileChannel channel = out.getChannel();
+			int first = 0;
+			while (first < buffers.length)
+			{
+				channel.write(buffers, first, buffers.length-first);
+				while (first < buffers.length && !buffers[first].hasRemaining())
+					first++;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Formats one range of records at a time and streams it through the compressor,
+	 * so that only one range is held in memory however big the model
+	 */
+	private void writeCompressed(String path) throws IOException
+	{
+		OutputStream out = NetworkCompression.openOutput(path);
+		try {
+			for (Callable<ByteBuffer> chunk : chunks())
+			{
+				ByteBuffer buf = ((Chunk) chunk).call();
+				out.write(buf.array(), buf.arrayOffset()+buf.position(), buf.remaining());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private List<Callable<ByteBuffer>> chunks()
+	{
+		int nNodes = this.snapshot.nNodes();
+		int nConnections = this.snapshot.nConnections();
+		List<Callable<ByteBuffer>> chunks = new ArrayList<Callable<ByteBuffer>>();
+		for (int start=0; start<nNodes; start+=RECORDS_PER_CHUNK)
+			chunks.add(new Chunk(false, start, Math.min(nNodes, start+RECORDS_PER_CHUNK)));
+		for (int start=0; start<nConnections; start+=RECORDS_PER_CHUNK)
+			chunks.add(new Chunk(true, start, Math.min(nConnections, start+RECORDS_PER_CHUNK)));
+		return chunks;
+	}
+
+	private ByteBuffer[] format(List<Callable<ByteBuffer>> chunks) throws IOException
+	{
+		ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+		if (chunks.size() <= 1)
+		{
+			for (int i=0; i<chunks.size(); i++)
+				buffers[i] = ((Chunk) chunks.get(i)).call();
+			return buffers;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			List<Future<ByteBuffer>> results = pool.invokeAll(chunks);
+			for (int i=0; i<buffers.length; i++)
+				buffers[i] = results.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Saving was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return buffers;
+	}
+
+	/**
+	 * Formats and encodes one range of node or connection records
+	 */
+	private class Chunk implements Callable<ByteBuffer>
+	{
+		private boolean connections;
+		private int start;
+		private int end;
+
+		Chunk(boolean connections, int start, int end)
+		{
+			this.connections = connections;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public ByteBuffer call() throws CharacterCodingException
+		{
+			NetworkSnapshot s = snapshot;
+			StringBuilder sb = builders.get();
+			sb.setLength(0);
+			for (int i=this.start; i<this.end; i++)
+			{
+				if (this.connections)
+					NetworkConnection.format(sb, s.getConnectionNode1(i), s.getConnectionSide1(i), s.getConnectionNode2(i), s.getConnectionSide2(i));
+				else
+					NetworkNode.format(sb, s.getNodeName(i), s.getX(i), s.getY(i));
+				sb.append(lineSeparator);
+			}
+
+			//encode() resets the encoder before it starts
+			return encoders.get().encode(CharBuffer.wrap(sb));
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a network description file cannot be parsed.  Records where in the
+ * file the problem was found.
+ */
+public class NetworkFormatException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	private String reason;
+	private int lineNumber;
+	private int columnNumber;
+
+	/**
+	 * @param message what was wrong
+	 * @param lineNumber the line the problem was found on, starting at 1
+	 * @param columnNumber the column the problem was found at, starting at 1
+	 */
+	public NetworkFormatException(String message, int lineNumber, int columnNumber)
+	{
+		super("line "+lineNumber+", column "+columnNumber+": "+message);
+		this.reason = message;
+		this.lineNumber = lineNumber;
+		this.columnNumber = columnNumber;
+	}
+
+	public int getLineNumber() {
+		return this.lineNumber;
+	}
+
+	public int getColumnNumber() {
+		return this.columnNumber;
+	}
+
+	/**
+	 * @return the same problem, found lines further into the file
+	 */
+	NetworkFormatException movedDown(int lines)
+	{
+		return new NetworkFormatException(this.reason, this.lineNumber+lines, this.columnNumber);
+	}
+}
@@ -0,0 +1,91 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Picks the format a network file is read or written in.
+ *
+ * Files named with GraphMLFormat's or DotFormat's extensions are in those formats.
+ * Other files are read in the binary format if they start with its magic bytes
+ * and in the text format otherwise, and are written in the binary format if named
+ * with its extension.  Any of these may also be compressed, as NetworkCompression
+ * describes.
+ */
+class NetworkFormats
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return true if the file at path is an uncompressed file in the text format,
+	 * 	which is the only kind that can be split up and read in pieces
+	 */
+	static boolean isPlainText(String path) throws IOException
+	{
+		return !GraphMLFormat.hasExtension(path) && !DotFormat.hasExtension(path)
+			   && !NetworkCompression.isCompressed(path) && !NetworkBinaryFormat.isBinary(path);
+	}
+
+	/**
+	 * Reads the file at path, passing its records to handler
+	 */
+	static void read(String path, NetworkFileParser.RecordHandler handler) throws IOException
+	{
+		InputStream in = NetworkCompression.openInput(path);
+		try {
+			read(in, path, handler);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the records of the file at path from in, passing them to handler
+	 * @param in the file's contents, already decompressed, in a stream that supports mark
+	 */
+	static void read(InputStream in, String path, NetworkFileParser.RecordHandler handler) throws IOException
+	{
+		if (GraphMLFormat.hasExtension(path))
+			GraphMLFormat.read(in, handler);
+		else if (DotFormat.hasExtension(path))
+			new DotFormat(new InputStreamReader(in, UTF8)).parse(handler);
+		else if (NetworkBinaryFormat.isBinary(in))
+			NetworkBinaryFormat.read(in, path, handler);
+		else
+			new NetworkFileParser(new InputStreamReader(in, UTF8)).parse(handler);
+	}
+
+	/**
+	 * Writes snapshot to path in the format its name calls for
+	 */
+	static void write(NetworkSnapshot snapshot, String path) throws IOException
+	{
+		if (NetworkBinaryFormat.hasBinaryExtension(path))
+			NetworkBinaryFormat.write(snapshot, path);
+		else if (GraphMLFormat.hasExtension(path))
+		{
+			OutputStream out = NetworkCompression.openOutput(path);
+			try {
+				GraphMLFormat.write(snapshot, out);
+			} finally {
+				out.close();
+			}
+		}
+		else if (DotFormat.hasExtension(path))
+		{
+			Writer out = new OutputStreamWriter(NetworkCompression.openOutput(path), UTF8);
+			try {
+				DotFormat.write(snapshot, out);
+			} finally {
+				out.close();
+			}
+		}
+		else
+			new NetworkFileWriter(snapshot).write(path);
+	}
+}
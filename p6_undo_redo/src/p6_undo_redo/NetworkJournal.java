@@ -0,0 +1,212 @@
+package p6_undo_redo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Records the edits made to a model since it was last saved, so that saving can
+ * append them to a journal beside the model's file instead of rewriting the file.
+ *
+ * The file stays the snapshot.  The journal, at the file's path plus EXTENSION,
+ * holds one record per edit in the order they were made, as read by
+ * NetworkFileParser: added nodes and connections use the same N and C records as
+ * the snapshot, and the other edits refer to nodes and connections by their index
+ * at the time.  Loading replays the journal on top of the snapshot.
+ *
+ * Replaying an edit must do what the edit did.  A connection end is replayed by
+ * binding it to the first node with its name, as loading the snapshot does, so
+ * while any connection is bound to another node of the same name the model keeps
+ * no journal and each save rewrites the file.
+ */
+class NetworkJournal
+{
+	static final String EXTENSION = ".journal";
+
+	/**
+	 * A journal is folded into a fresh snapshot once it is bigger than both this
+	 * and half the snapshot
+	 */
+	static final long COMPACT_SIZE = 1 << 20;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private StringBuilder pending = new StringBuilder();
+	private String lineSeparator = System.getProperty("line.separator");
+	private boolean snapshotSaved;
+	private boolean lostSinceTaken;
+
+	/**
+	 * @param snapshotSaved true if the snapshot and journal on disk hold the model
+	 * 	as it is now, so that later edits can be appended to them
+	 */
+	NetworkJournal(boolean snapshotSaved)
+	{
+		this.snapshotSaved = snapshotSaved;
+	}
+
+	static String pathFor(String fileName)
+	{
+		return fileName+EXTENSION;
+	}
+
+	static boolean exists(String fileName)
+	{
+		return new File(pathFor(fileName)).isFile();
+	}
+
+	static void delete(String fileName)
+	{
+		new File(pathFor(fileName)).delete();
+	}
+
+	/**
+	 * @return true if edits can be appended to the journal of fileName
+	 */
+	boolean canAppendTo(String fileName)
+	{
+		return this.snapshotSaved && new File(fileName).isFile();
+	}
+
+	/**
+	 * Called once the whole model, as it was when its pending records were last
+	 * taken, has been written to its file
+	 */
+	void snapshotWritten()
+	{
+		this.snapshotSaved = !this.lostSinceTaken;
+	}
+
+	/**
+	 * Called when the model's file no longer matches it, as when it is given a new name.
+	 * A save already under way then does not make the snapshot appendable again.
+	 */
+	void snapshotLost()
+	{
+		this.pending.setLength(0);
+		this.snapshotSaved = false;
+		this.lostSinceTaken = true;
+	}
+
+	void nodeAdded(String name, double x, double y)
+	{
+		NetworkNode.format(this.pending, name, x, y).append(this.lineSeparator);
+	}
+
+	void nodeMoved(int index, double x, double y)
+	{
+		this.pending.append("M ").append(index).append(' ').append(x).append(' ').append(y).append(this.lineSeparator);
+	}
+
+	void nodeRenamed(int index, String name)
+	{
+		this.pending.append("R ").append(index).append(" \"").append(name).append('"').append(this.lineSeparator);
+	}
+
+	void nodeRemoved(int index)
+	{
+		this.pending.append("-N ").append(index).append(this.lineSeparator);
+	}
+
+	void connectionAdded(String node1, Side side1, String node2, Side side2)
+	{
+		NetworkConnection.format(this.pending, node1, side1, node2, side2).append(this.lineSeparator);
+	}
+
+	void connectionRemoved(int index)
+	{
+		this.pending.append("-C ").append(index).append(this.lineSeparator);
+	}
+
+	/**
+	 * @return the records of the edits made since they were last taken, which are
+	 * 	then forgotten
+	 */
+	String takePending()
+	{
+		String records = this.pending.toString();
+		this.pending.setLength(0);
+		this.lostSinceTaken = false;
+		return records;
+	}
+
+	/**
+	 * @return true if the pending records would grow the journal of fileName
+	 * 	past the point where it should be folded into a fresh snapshot
+	 */
+	boolean shouldCompact(String fileName)
+	{
+		long size = new File(pathFor(fileName)).length()+this.pending.length();
+		return size > COMPACT_SIZE && size > new File(fileName).length()/2;
+	}
+
+	/**
+	 * Appends records to the journal of fileName
+	 */
+	static void append(String fileName, String records) throws IOException
+	{
+		if (records.length() == 0)
+			return;
+		FileOutputStream out = new FileOutputStream(pathFor(fileName), true);
+		try {
+			out.write(records.getBytes(UTF8));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Applies the journal of fileName to model, which holds the snapshot
+	 */
+	static void replay(final NetworkModel model, String fileName) throws IOException
+	{
+		Reader in = new InputStreamReader(new FileInputStream(pathFor(fileName)), UTF8);
+		try {
+			new NetworkFileParser(in).parse(new NetworkFileParser.JournalHandler() {
+				@Override
+				public void node(String name, double x, double y)
+				{
+					model.appendNode(name, x, y);
+				}
+
+				@Override
+				public void connection(String node1, Side side1, String node2, Side side2)
+				{
+					model.appendConnection(node1, side1, node2, side2);
+				}
+
+				@Override
+				public void nodeMoved(int index, double x, double y)
+				{
+					model.getNode(index).setLocation(x, y);
+				}
+
+				@Override
+				public void nodeRenamed(int index, String name)
+				{
+					model.getNode(index).setName(name);
+				}
+
+				@Override
+				public void nodeRemoved(int index)
+				{
+					model.removeNode(index);
+				}
+
+				@Override
+				public void connectionRemoved(int index)
+				{
+					model.removeConnection(index);
+				}
+			});
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -2,10 +2,22 @@ package p6_undo_redo;
 
 public interface NetworkListener {
 
-	void nodeChanged(NetworkNode n);
+	/**
+	 * Called when a node is added, removed, moved or renamed
+	 */
+	void nodeChanged(NetworkChangeEvent e);
 
-	void connectionChanged(NetworkConnection c);
+	/**
+	 * Called when a connection is added or removed
+	 */
+	void connectionChanged(NetworkChangeEvent e);
 
 	void transformChanged();
 
+	/**
+	 * Called once after a batch of changes, in place of the individual
+	 * nodeChanged, connectionChanged and transformChanged calls.
+	 */
+	void networkChanged();
+
 }
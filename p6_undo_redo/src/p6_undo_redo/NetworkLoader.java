@@ -0,0 +1,304 @@
+package p6_undo_redo;
+
+import java.awt.Component;
+import java.awt.Cursor;
+import java.awt.Window;
+import java.awt.event.KeyAdapter;
+import java.awt.event.MouseAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JOptionPane;
+import javax.swing.JRootPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Opens a network file in a new window without waiting for it to be read.
+ *
+ * The window appears at once with an empty model.  The file is parsed on a
+ * background thread and its records are handed to the event dispatch thread in
+ * batches, each of which is added to the model with a single networkChanged()
+ * notification, so the view draws the network as it arrives.  The view is told
+ * that the model is loading, so it only measures and indexes what each batch
+ * adds.  A progress monitor shows how much of the file has been read and lets
+ * the user cancel, which closes the window.  Closing the window cancels too.  The
+ * window takes no input until the file has been read.
+ *
+ * A file with an up to date entry in the NetworkModelCache is read from the entry
+ * without opening the file, and progress is how much of the entry has been read.
+ * Large text files are parsed on several threads by NetworkFileLoader, a chunk
+ * of the file to a batch.
+ */
+class NetworkLoader extends SwingWorker<Void, NetworkRecords>
+{
+	static final int RECORDS_PER_BATCH = 20000;
+
+	/**
+	 * The size of the chunks large text files are split into, which holds about
+	 * as many records as a batch
+	 */
+	static final int BYTES_PER_CHUNK = 1 << 20;
+
+	private NetworkModel model;
+	private NetworkView view;
+	private String fileName;
+	//The number of bytes to be read: of the file, or of its cache entry
+	private long size;
+	private ProgressMonitor monitor;
+
+	//Read only on the background thread
+	private CountingInputStream in;
+	private NetworkRecords batch = new NetworkRecords();
+
+	/**
+	 * Opens fileName in a new window and starts reading it
+	 * @return the model the file is read into
+	 */
+	static NetworkModel open(String fileName)
+	{
+		NetworkModel model = NetworkModel.createUnloaded(fileName);
+		NetworkView view = Network.createNewWindow(model);
+		new NetworkLoader(model, view, fileName).start();
+		return model;
+	}
+
+	private NetworkLoader(NetworkModel model, NetworkView view, String fileName)
+	{
+		this.model = model;
+		this.view = view;
+		this.fileName = fileName;
+		this.size = new File(fileName).length();
+	}
+
+	private void start()
+	{
+		setInputBlocked(true);
+		this.view.setLoader(this);
+		this.monitor = new ProgressMonitor(this.view, "Loading "+new File(this.fileName).getName(), null, 0, 100);
+		addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent e)
+			{
+				if ("progress".equals(e.getPropertyName()))
+					monitor.setProgress((Integer) e.getNewValue());
+				checkCanceled();
+			}
+		});
+		execute();
+	}
+
+	@Override
+	protected Void doInBackground() throws IOException
+	{
+		InputStream cached = NetworkModelCache.open(this.fileName);
+		if (cached != null)
+		{
+			this.size = cached.available();
+			this.in = new CountingInputStream(cached);
+			NetworkBinaryFormat.read(new BufferedInputStream(this.in, 1 << 16), this.fileName, handler());
+		}
+		else if (this.size >= NetworkFileLoader.PARALLEL_THRESHOLD && NetworkFormats.isPlainText(this.fileName))
+			readChunks();
+		else
+			readFile();
+		publish(this.batch);
+		return null;
+	}
+
+	private void readFile() throws IOException
+	{
+		this.in = new CountingInputStream(new FileInputStream(this.fileName));
+		InputStream data = NetworkCompression.wrapInput(this.in, this.fileName);
+		try {
+			NetworkFormats.read(data, this.fileName, handler());
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Parses the file on several threads, publishing each chunk as a batch
+	 */
+	private void readChunks() throws IOException
+	{
+		NetworkFileLoader.parse(this.fileName, BYTES_PER_CHUNK, new NetworkFileLoader.ChunkHandler() {
+			@Override
+			public void parsed(NetworkRecords records, long end)
+			{
+				if (isCancelled())
+					throw new CancellationException();
+				publish(records);
+				setProgress((int) Math.min(99, end*100/size));
+			}
+		});
+	}
+
+	/**
+	 * @return a handler that collects records into batches
+	 */
+	private NetworkFileParser.RecordHandler handler()
+	{
+		return new NetworkFileParser.RecordHandler() {
+			@Override
+			public void node(String name, double x, double y)
+			{
+				batch.node(name, x, y);
+				recordRead();
+			}
+
+			@Override
+			public void connection(String node1, Side side1, String node2, Side side2)
+			{
+				batch.connection(node1, side1, node2, side2);
+				recordRead();
+			}
+		};
+	}
+
+	/**
+	 * Hands the batch over once it is full.  Throws CancellationException to stop
+	 * the parse once the load has been cancelled.
+	 */
+	private void recordRead()
+	{
+		if (this.batch.size() < RECORDS_PER_BATCH)
+			return;
+		if (isCancelled())
+			throw new CancellationException();
+		publish(this.batch);
+		this.batch = new NetworkRecords();
+		if (this.size > 0)
+			setProgress((int) Math.min(99, this.in.count*100/this.size));
+	}
+
+	/**
+	 * Adds batches to the model in the order they were read.  SwingWorker runs every
+	 * published batch before done().
+	 */
+	@Override
+	protected void process(List<NetworkRecords> batches)
+	{
+		if (isCancelled())
+			return;
+		this.model.suspendNotifications();
+		try {
+			for (NetworkRecords records : batches)
+				records.appendTo(this.model);
+		} finally {
+			this.model.resumeNotifications();
+		}
+		checkCanceled();
+	}
+
+	@Override
+	protected void done()
+	{
+		this.monitor.close();
+		setInputBlocked(false);
+		this.view.setLoader(null);
+		if (isCancelled())
+		{
+			closeWindow();
+			return;
+		}
+		try {
+			get();
+			this.model.loadFinished();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | IOException e) {
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			JOptionPane.showMessageDialog(this.view, "Could not open "+this.fileName+":\n"+cause.getMessage(),
+										  "Open Failed", JOptionPane.ERROR_MESSAGE);
+			closeWindow();
+		}
+	}
+
+	private void checkCanceled()
+	{
+		if (this.monitor.isCanceled() && !isDone())
+			cancel(false);
+	}
+
+	/**
+	 * Covers the window with its glass pane, which swallows mouse and key input
+	 * and shows a wait cursor, so the model is not edited while it is being read
+	 */
+	private void setInputBlocked(boolean blocked)
+	{
+		JRootPane root = SwingUtilities.getRootPane(this.view);
+		if (root == null)
+			return;
+		Component glass = root.getGlassPane();
+		if (blocked)
+		{
+			glass.addMouseListener(new MouseAdapter() {});
+			glass.addKeyListener(new KeyAdapter() {});
+			glass.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+			glass.setFocusable(true);
+			glass.setVisible(true);
+			glass.requestFocusInWindow();
+		}
+		else
+		{
+			glass.setVisible(false);
+			this.view.requestFocusInWindow();
+		}
+	}
+
+	/**
+	 * Closes the window without asking to save the partly read model
+	 */
+	private void closeWindow()
+	{
+		this.model.loadAbandoned();
+		Window window = SwingUtilities.getWindowAncestor(this.view);
+		if (window != null)
+			window.dispatchEvent(new WindowEvent(window, WindowEvent.WINDOW_CLOSING));
+	}
+
+	/**
+	 * Counts the bytes read through it, for the progress monitor.  It sits under
+	 * any decompression and buffering, so it counts bytes of the file or entry.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		volatile long count;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+				this.count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n > 0)
+				this.count += n;
+			return n;
+		}
+	}
+}
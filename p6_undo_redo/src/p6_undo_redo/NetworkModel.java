@@ -2,8 +2,11 @@ package p6_undo_redo;
 
 import java.awt.geom.AffineTransform;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 
+import javax.swing.SwingUtilities;
+
 import p6_undo_redo.NetworkConnection.Side;
 
 /**
@@ -13,8 +16,10 @@ public class NetworkModel
 {
 	private String fileName;
 	private boolean unsavedChanges;
-	private ArrayList<NetworkNode> nodeList = new ArrayList<NetworkNode>();
-	private ArrayList<NetworkConnection> conList = new ArrayList<NetworkConnection>();
+	private NodeStore nodeStore = new NodeStore(this);
+	private ConnectionStore conStore = new ConnectionStore(this);
+	private NetworkAdjacency adjacency;
+	private HashMap<String, ArrayList<NetworkConnection>> danglingIndex = new HashMap<String, ArrayList<NetworkConnection>>();
 	
 	private ArrayList<NetworkListener> listeners = new ArrayList<NetworkListener>();
 	
@@ -22,13 +27,20 @@ public class NetworkModel
 	
 	private Stack<NetworkCommand> undoStack = new Stack<NetworkCommand>();
 	private Stack<NetworkCommand> redoStack = new Stack<NetworkCommand>();
+	private CompoundCommand batch;
+	private int batchDepth;
+	private int suspendDepth;
+	private boolean pendingNotification;
+	private NetworkJournal journal;
+	private NetworkFileWatcher watcher;
+	private int modCount;
+	private int savesInProgress;
 	
 	/**
 	 * Creates an empty network model that has a unique default file name and no contents
-	 * @throws UnsupportedEncodingException 
-	 * @throws FileNotFoundException 
+	 * @throws IOException 
 	 */
-	public NetworkModel() throws FileNotFoundException, UnsupportedEncodingException
+	public NetworkModel() throws IOException
 	{
 		long timestamp = System.currentTimeMillis()/1000;
 		setFileName("defaultNetwork_"+timestamp+".network");
@@ -39,61 +51,110 @@ public class NetworkModel
 	/**
 	 * Reads the specific file and creates a new NetworkModel object that contains all of the 
 	 * information in the file. If there is no such file then an exception should be thrown.
+	 * If the file has a journal beside it, the journal is replayed and later saves
+	 * keep appending to it.
 	 * @param fileName the name of the file to be read.
-	 * @throws FileNotFoundException 
-	 * @throws UnsupportedEncodingException 
+	 * @throws FileNotFoundException if there is no such file
+	 * @throws NetworkFormatException if the file is not a valid network description
+	 * @throws IOException 
+	 */
+	public NetworkModel(String fileName) throws IOException
+	{
+		this(fileName, 0);
+	}
+	
+	/**
+	 * Reads the specific file, parsing it on several threads in pieces of about
+	 * chunkSize bytes.  A chunkSize of 0 leaves it to the model to decide, by the
+	 * size of the file, whether and how to split it.
 	 */
-	public NetworkModel(String fileName) throws FileNotFoundException, UnsupportedEncodingException
+	NetworkModel(String fileName, int chunkSize) throws IOException
+	{
+		this(fileName, new Stack<AffineTransform>());
+		parseFile(fileName, chunkSize);
+		loadFinished();
+	}
+	
+	private NetworkModel(String fileName, Stack<AffineTransform> transformations)
 	{
 		setFileName(fileName);
-		parseFile(fileName);
-		clearCommandStack();
-		transformations = new Stack<AffineTransform>();
-		this.unsavedChanges = false;
+		this.transformations = transformations;
 	}
-
+	
 	/**
-	 * Parses a Network Model description file
-	 * @param fileName
-	 * @throws FileNotFoundException
+	 * Creates an empty model for fileName without reading the file, for a
+	 * NetworkLoader to fill in a batch at a time.
 	 */
-	private void parseFile(String fileName) throws FileNotFoundException
+	static NetworkModel createUnloaded(String fileName)
 	{
-		File f = new File(fileName);
-		Scanner s = new Scanner(f);
-		
-		while (s.hasNext())
+		return new NetworkModel(fileName, new Stack<AffineTransform>());
+	}
+	
+	/**
+	 * Called once the records of the model's file have all been added.  Replays
+	 * the file's journal, if it has one, and marks the model as saved.
+	 */
+	void loadFinished() throws IOException
+	{
+		NetworkModelCache.loaded(this, this.fileName);
+		if (NetworkJournal.exists(this.fileName))
 		{
-			String line = s.nextLine();
-			if (line.charAt(0) == 'N')
-				parseNetworkNode(line);
-			else if (line.charAt(0) == 'C')
-				parseNetworkConnection(line);
+			NetworkJournal.replay(this, this.fileName);
+			this.journal = new NetworkJournal(true);
 		}
-		
-		s.close();
+		clearCommandStack();
+		this.unsavedChanges = false;
 	}
 	
-	private void parseNetworkNode(String line)
+	/**
+	 * Called when the model's file could not be read in full.  What was read is not
+	 * offered for saving, so the file is not overwritten with part of itself.
+	 */
+	void loadAbandoned()
+	{
+		this.unsavedChanges = false;
+	}
+
+	/**
+	 * Parses a Network Model description file.  Records are added straight to the
+	 * stores without going through commands, so loading leaves nothing to undo.
+	 * Large files are handed to NetworkFileLoader to be parsed on several threads,
+	 * and files in the binary format to NetworkBinaryFormat.  Compressed files are
+	 * always read as one stream.  A file with an up to date entry in the
+	 * NetworkModelCache is read from the entry instead.
+	 * @param fileName
+	 * @param chunkSize see NetworkModel(String, int)
+	 * @throws IOException
+	 */
+	private void parseFile(String fileName, int chunkSize) throws IOException
 	{
-		String [] tokens  = line.split("\"*\"");
-		String [] coordinates = tokens[0].split(" ");
-		String nodeName = tokens[1].trim();
-		double xCenter	= Double.parseDouble(coordinates[1]);
-		double yCenter = Double.parseDouble(coordinates[2]);
-		NetworkNode n = new NetworkNode(nodeName, xCenter, yCenter);
-		this.newNode(n);
+		InputStream cached = NetworkModelCache.open(fileName);
+		if (cached != null)
+			NetworkBinaryFormat.read(cached, fileName, appender());
+		else if ((chunkSize > 0 || new File(fileName).length() >= NetworkFileLoader.PARALLEL_THRESHOLD) && NetworkFormats.isPlainText(fileName))
+			NetworkFileLoader.load(this, fileName, chunkSize);
+		else
+			NetworkFormats.read(fileName, appender());
 	}
 	
-	private void parseNetworkConnection(String line)
+	/**
+	 * @return a handler that appends each record it is given to this model
+	 */
+	NetworkFileParser.RecordHandler appender()
 	{
-		String [] tokens = line.split("\"*\"");
-		String node1 = tokens[1].trim();
-		Side side1 = Side.valueOf(tokens[2].trim());
-		String node2 = tokens[3].trim();
-		Side side2 = Side.valueOf(tokens[4].trim());
-		NetworkConnection c = new NetworkConnection(node1, side1, node2, side2);
-		this.addConnection(c);
+		return new NetworkFileParser.RecordHandler() {
+			@Override
+			public void node(String name, double x, double y)
+			{
+				appendNode(name, x, y);
+			}
+			
+			@Override
+			public void connection(String node1, Side side1, String node2, Side side2)
+			{
+				appendConnection(node1, side1, node2, side2);
+			}
+		};
 	}
 	
 	
@@ -112,8 +173,7 @@ public class NetworkModel
 	{
 		NetworkCommand c = new NewTransformationCommand(at, this);
 		c.doit();
-		undoStack.push(c);
-		redoStack.clear();
+		pushCommand(c);
 	}
 	
 	public void addTransformationToList(AffineTransform at)
@@ -130,8 +190,7 @@ public class NetworkModel
 	{
 		NetworkCommand c = new ClearTransformsCommand(transformations, this);
 		c.doit();
-		undoStack.push(c);
-		redoStack.clear();
+		pushCommand(c);
 	}
 	
 	public void clearTransformationList()
@@ -139,9 +198,104 @@ public class NetworkModel
 		this.transformations.clear();
 	}
 	
+	/**
+	 * Records a command that has just been done.  Inside a batch it becomes part
+	 * of the batch's single undo step.
+	 */
+	private void pushCommand(NetworkCommand c)
+	{
+		if (this.batch != null)
+			this.batch.add(c);
+		else
+			undoStack.push(c);
+		redoStack.clear();
+	}
+	
+	/**
+	 * Starts a batch of changes.  Until the matching commitBatch(), listeners are not
+	 * told about individual changes, and every undoable change joins one undo step.
+	 * Batches may be nested; only the outermost commit takes effect.
+	 */
+	public void beginBatch()
+	{
+		if (this.batchDepth++ == 0)
+			this.batch = new CompoundCommand(this);
+		suspendNotifications();
+	}
+	
+	/**
+	 * Ends a batch started by beginBatch().  If anything changed, listeners get a single
+	 * networkChanged() notification and the changes become one undo step.
+	 */
+	public void commitBatch()
+	{
+		if (this.batchDepth == 0)
+			throw new IllegalStateException("commitBatch without beginBatch");
+		if (--this.batchDepth == 0)
+		{
+			CompoundCommand c = this.batch;
+			this.batch = null;
+			if (c.size() == 1)
+				undoStack.push(c.get(0));
+			else if (c.size() > 1)
+				undoStack.push(c);
+		}
+		resumeNotifications();
+	}
+	
+	/**
+	 * Runs edits as a single batch.
+	 * @see #beginBatch()
+	 */
+	public void batch(Runnable edits)
+	{
+		beginBatch();
+		try {
+			edits.run();
+		} finally {
+			commitBatch();
+		}
+	}
+	
+	/**
+	 * Holds back listener notifications until the matching resumeNotifications().
+	 */
+	void suspendNotifications()
+	{
+		this.suspendDepth++;
+	}
+	
+	void resumeNotifications()
+	{
+		if (--this.suspendDepth == 0 && this.pendingNotification)
+		{
+			this.pendingNotification = false;
+			for (int i=0; i<this.listeners.size(); i++)
+				listeners.get(i).networkChanged();
+		}
+	}
+	
+	/**
+	 * Marks the model as changed.
+	 * @return true if listeners should hear about the change now.  While notifications
+	 * 	are suspended this remembers that a networkChanged() notification is owed instead.
+	 */
+	private boolean wantsEvent()
+	{
+		this.unsavedChanges = true;
+		this.modCount++;
+		if (this.suspendDepth > 0)
+		{
+			this.pendingNotification = true;
+			return false;
+		}
+		return !this.listeners.isEmpty();
+	}
+	
 	private void clearCommandStack() 
 	{
 		this.undoStack.clear();
+		this.redoStack.clear();
 	}
 	
 	public boolean canUndo()
@@ -183,39 +337,203 @@ public class NetworkModel
 	public void setFileName(String newFileName)
 	{
 		this.fileName = newFileName;
+		if (this.journal != null)
+			this.journal.snapshotLost();
+		if (this.watcher != null)
+		{
+			this.watcher.close();
+			this.watcher = null;
+			try {
+				setWatched(true);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Turns journaled saving on or off.  While it is on, save() appends the edits
+	 * made since the last save to a journal beside the model's file instead of
+	 * rewriting the file, and rewrites the file only once the journal grows large.
+	 */
+	public void setJournaled(boolean journaled)
+	{
+		if (!journaled)
+			this.journal = null;
+		else if (this.journal == null)
+			this.journal = new NetworkJournal(!this.unsavedChanges && !NetworkJournal.exists(this.fileName) && allBoundByName());
+	}
+	
+	public boolean isJournaled()
+	{
+		return this.journal != null;
+	}
+	
+	/**
+	 * Turns watching of the model's file on or off.  While it is on, changes made
+	 * to the file by other programs are applied to the model as they happen.
+	 * @see NetworkFileWatcher
+	 */
+	public void setWatched(boolean watched) throws IOException
+	{
+		if (!watched && this.watcher != null)
+		{
+			this.watcher.close();
+			this.watcher = null;
+		}
+		else if (watched && this.watcher == null)
+			this.watcher = new NetworkFileWatcher(this, this.fileName);
+	}
+	
+	public boolean isWatched()
+	{
+		return this.watcher != null;
+	}
+	
+	/**
+	 * Called by the NetworkFileWatcher once the model has been brought up to date
+	 * with a file another program wrote.  The model now matches its file, so any
+	 * journal beside the file, which was kept against the old contents, is dropped.
+	 * So are the undo and redo steps, which were recorded against them too.
+	 */
+	void fileReloaded()
+	{
+		clearCommandStack();
+		if (this.journal != null)
+		{
+			this.journal.takePending();
+			NetworkJournal.delete(this.fileName);
+			this.journal.snapshotWritten();
+		}
+		this.unsavedChanges = false;
 	}
 	
 	/**
 	 * Saves the contents of this model to its file.
-	 * @throws UnsupportedEncodingException 
-	 * @throws FileNotFoundException 
+	 * @throws IOException 
 	 */
-	public void save() throws FileNotFoundException, UnsupportedEncodingException
+	public void save() throws IOException
 	{
-		saveAs(this.getFileName());
+		write(beginSave());
 	}
 	
 	/**
-	 * Saves the contents of this model to the file specified by path
+	 * Saves the contents of this model to the file specified by path.  Paths ending
+	 * in NetworkBinaryFormat.EXTENSION are written in the binary format.  Any journal
+	 * beside path is deleted, as the file now holds everything.
 	 * @param path
-	 * @throws FileNotFoundException
-	 * @throws UnsupportedEncodingException
+	 * @throws IOException
+	 */
+	public void saveAs(String path) throws IOException
+	{
+		write(beginSaveAs(path));
+	}
+	
+	private void write(NetworkSnapshot snapshot) throws IOException
+	{
+		boolean written = false;
+		try {
+			snapshot.write();
+			written = true;
+		} finally {
+			endSave(snapshot, written);
+		}
+	}
+	
+	/**
+	 * Starts a save of this model to its file by copying what will be written.  The
+	 * snapshot can then be written on another thread while the model is edited,
+	 * after which endSave must be called on this model's thread.
+	 * @return what save() would write
+	 */
+	public NetworkSnapshot beginSave()
+	{
+		if (this.journal != null && this.journal.canAppendTo(this.fileName) && !this.journal.shouldCompact(this.fileName))
+			return startSave(new NetworkSnapshot(this, this.fileName, this.journal.takePending()));
+		return beginSaveAs(this.fileName);
+	}
+	
+	/**
+	 * Starts a save of this model to path, as beginSave() does.
+	 * @return what saveAs(path) would write
 	 */
-	public void saveAs(String path) throws FileNotFoundException, UnsupportedEncodingException
+	public NetworkSnapshot beginSaveAs(String path)
 	{
-		PrintWriter writer = new PrintWriter(path, "UTF-8");
-		for (int i=0; i<this.nodeList.size(); i++)
+		NetworkSnapshot snapshot = snapshot(path);
+		if (this.journal != null && path.equals(this.fileName))
 		{
-			NetworkNode n = this.getNode(i);
-			writer.println(n.toString());
+			this.journal.takePending(); //the snapshot holds these edits
+			if (!allBoundByName())
+				this.journal.snapshotLost();
 		}
-		for (int i=0; i<this.conList.size(); i++)
+		return startSave(snapshot);
+	}
+	
+	/**
+	 * @return a copy of the whole model, to be written to path.  It shares the
+	 * 	stores' columns until they next change, so only the names of unbound
+	 * 	connection ends are copied here.
+	 */
+	NetworkSnapshot snapshot(String path)
+	{
+		HashMap<Integer, String[]> unbound = new HashMap<Integer, String[]>();
+		for (ArrayList<NetworkConnection> bucket : this.danglingIndex.values())
 		{
-			NetworkConnection c = this.getConnection(i);
-			writer.println(c.toString());
+			for (NetworkConnection c : bucket)
+			{
+				String[] names = { (c.getNode1Id() < 0) ? c.getNode1() : null,
+								   (c.getNode2Id() < 0) ? c.getNode2() : null };
+				unbound.put(this.conStore.positionOf(c.getId()), names);
+			}
 		}
-		writer.close();
-		this.unsavedChanges = false;
+		return new NetworkSnapshot(this, path, this.nodeStore.share(), this.conStore.share(), unbound);
+	}
+	
+	private NetworkSnapshot startSave(NetworkSnapshot snapshot)
+	{
+		this.savesInProgress++;
+		return snapshot;
+	}
+	
+	/**
+	 * Finishes a save started by beginSave or beginSaveAs.  The model is only marked
+	 * as saved if it has not been edited since the snapshot was taken.
+	 * @param written true if the snapshot was written successfully
+	 */
+	public void endSave(NetworkSnapshot snapshot, boolean written)
+	{
+		this.savesInProgress--;
+		boolean ownFile = snapshot.getPath().equals(this.fileName);
+		if (written)
+		{
+			if (this.journal != null && ownFile)
+				this.journal.snapshotWritten();
+			if (this.watcher != null && ownFile)
+				this.watcher.fileWritten();
+			if (snapshot.getModCount() == this.modCount)
+				this.unsavedChanges = false;
+		}
+		else if (this.journal != null && ownFile)
+		{
+			//The file or its journal may be half written, so the next save rewrites both
+			this.journal.snapshotLost();
+		}
+	}
+	
+	/**
+	 * @return true if a save has been started and not yet finished
+	 */
+	public boolean isSaving()
+	{
+		return this.savesInProgress > 0;
+	}
+	
+	/**
+	 * @return a count that goes up every time this model is changed
+	 */
+	int getModCount()
+	{
+		return this.modCount;
 	}
 
 	/**
@@ -234,29 +552,91 @@ public class NetworkModel
 	{
 		NetworkCommand c = new NewNodeCommand(newNode, this);
 		c.doit();
-		undoStack.push(c);
-		redoStack.clear();
+		pushCommand(c);
 	}
 	
 	public void changeNodeName(NetworkNode n, String name)
 	{
 		NetworkCommand c = new ChangeNodeNameCommand(n, name);
 		c.doit();
-		undoStack.push(c);
-		redoStack.clear();
+		pushCommand(c);
 	}
 	
 	public void changeNodePosition(NetworkNode n, double x, double y)
 	{
 		NetworkCommand c = new ChangeNodePositionCommand(n, x, y);
 		c.doit();
-		undoStack.push(c);
-		redoStack.clear();
+		pushCommand(c);
 	}
 	
 	public void addNodeToList(NetworkNode node)
 	{
-		this.nodeList.add(node);
+		int id = this.nodeStore.add(node.getName(), node.getX(), node.getY(), node.getId());
+		int pos = this.nodeStore.size()-1;
+		node.attach(this.nodeStore, id);
+		this.nodeStore.setView(pos, node);
+		nodeAdded(id);
+	}
+	
+	/**
+	 * Appends a node without creating a NetworkNode for it or recording an undo step.
+	 * Used when loading a file.
+	 * @return the new node's id
+	 */
+	int appendNode(String name, double x, double y)
+	{
+		int id = this.nodeStore.add(name, x, y, -1);
+		nodeAdded(id);
+		return id;
+	}
+	
+	private void nodeAdded(int id)
+	{
+		this.adjacency = null;
+		if (this.journal != null)
+		{
+			int i = getNodeIndexById(id);
+			this.journal.nodeAdded(getNodeName(i), getNodeX(i), getNodeY(i));
+		}
+		bindDanglingConnections(id);
+		if (wantsEvent())
+		{
+			int i = getNodeIndexById(id);
+			fireNodeChanged(NetworkChangeEvent.nodeAdded(id, i, getNodeName(i), getNodeX(i), getNodeY(i)));
+		}
+	}
+	
+	/**
+	 * Called by NetworkNode.setName after a node in this model has been renamed.
+	 * Connections refer to nodes by id, so they need no rewriting.
+	 * @param n the renamed node
+	 * @param oldName the node's previous name
+	 */
+	void nodeRenamed(NetworkNode n, String oldName)
+	{
+		int i = getNodeIndex(n);
+		if (i < 0)
+			return;
+		if (this.journal != null)
+			this.journal.nodeRenamed(i, getNodeName(i));
+		bindDanglingConnections(n.getId());
+		if (wantsEvent())
+			fireNodeChanged(NetworkChangeEvent.nodeRenamed(n.getId(), i, oldName, getNodeName(i), getNodeX(i), getNodeY(i)));
+	}
+	
+	/**
+	 * Called by NetworkNode.setLocation after a node in this model has moved.
+	 * @param n the moved node
+	 * @param oldX the node's previous X coordinate
+	 * @param oldY the node's previous Y coordinate
+	 */
+	void nodeMoved(NetworkNode n, double oldX, double oldY)
+	{
+		int i = getNodeIndex(n);
+		if (i >= 0 && this.journal != null)
+			this.journal.nodeMoved(i, getNodeX(i), getNodeY(i));
+		if (i >= 0 && wantsEvent())
+			fireNodeChanged(NetworkChangeEvent.nodeMoved(n.getId(), i, getNodeName(i), oldX, oldY, getNodeX(i), getNodeY(i)));
 	}
 
 	/**
@@ -264,7 +644,7 @@ public class NetworkModel
 	 */
 	public int nNodes()
 	{
-		return this.nodeList.size();
+		return this.nodeStore.size();
 	}
 	
 	/**
@@ -273,12 +653,60 @@ public class NetworkModel
 	 */
 	public NetworkNode getNode(int i)
 	{
-		return this.nodeList.get(i);
+		return this.nodeStore.getView(i);
+	}
+	
+	/**
+	 * The getNodeX, getNodeY, getNodeName and getNodeId methods read the node store
+	 * directly, without creating a NetworkNode.  Loops over every node should use them.
+	 * @param i index of the node. Must be less than nNodes()
+	 */
+	public double getNodeX(int i)
+	{
+		return this.nodeStore.getX(i);
+	}
+	
+	public double getNodeY(int i)
+	{
+		return this.nodeStore.getY(i);
+	}
+	
+	public String getNodeName(int i)
+	{
+		return this.nodeStore.getName(i);
+	}
+	
+	public int getNodeId(int i)
+	{
+		return this.nodeStore.getId(i);
 	}
 	
+	/**
+	 * @return the index of n in this model, or -1 if n is not in this model
+	 */
 	public int getNodeIndex(NetworkNode n)
 	{
-		return this.nodeList.indexOf(n);
+		if (!n.isIn(this.nodeStore))
+			return -1;
+		return this.nodeStore.positionOf(n.getId());
+	}
+	
+	/**
+	 * @param id a node id, as returned by NetworkNode.getId()
+	 * @return the index of the node with that id, or -1 if there is none in this model
+	 */
+	public int getNodeIndexById(int id)
+	{
+		return this.nodeStore.positionOf(id);
+	}
+	
+	/**
+	 * @param id a connection id, as returned by NetworkConnection.getId()
+	 * @return the index of the connection with that id, or -1 if there is none in this model
+	 */
+	public int getConnectionIndexById(int id)
+	{
+		return this.conStore.positionOf(id);
 	}
 	
 	/**
@@ -287,14 +715,21 @@ public class NetworkModel
 	 */
 	public NetworkNode getNode(String nodeName)
 	{
-		for (int i=0; i<this.nodeList.size(); i++)
-		{
-			NetworkNode n = this.nodeList.get(i);
-			if (n.getName().compareTo(nodeName) == 0)
-				return n;
-		}
-		
-		return null;
+		return getNodeById(this.nodeStore.firstIdNamed(nodeName));
+	}
+	
+	/**
+	 * Ids are assigned when a node is added to the model and do not change
+	 * when other nodes are removed or when the node is renamed.
+	 * @param id a node id, as returned by NetworkNode.getId()
+	 * @return the node with that id, or null if there is none in this model
+	 */
+	public NetworkNode getNodeById(int id)
+	{
+		int pos = this.nodeStore.positionOf(id);
+		if (pos < 0)
+			return null;
+		return this.nodeStore.getView(pos);
 	}
 
 	/**
@@ -304,26 +739,53 @@ public class NetworkModel
 	 */
 	public void removeNode(int i)
 	{
-		NetworkNode n = this.nodeList.remove(i);
-		removeNodesConnections(n);
-		nodeChanged(n);
+		int id = getNodeId(i);
+		String name = getNodeName(i);
+		double x = getNodeX(i);
+		double y = getNodeY(i);
+		if (this.journal != null)
+			this.journal.nodeRemoved(i);
+		removeNodesConnections(id);
+		this.nodeStore.remove(i);
+		this.adjacency = null;
+		if (wantsEvent())
+			fireNodeChanged(NetworkChangeEvent.nodeRemoved(id, i, name, x, y));
 	}
 
-	private void removeNodesConnections(NetworkNode n) 
+	/**
+	 * Removes every connection attached to node id.  The incident connections come
+	 * from the index, and each is replaced by the last connection, so the cost depends
+	 * on the node's degree and not on the size of the network.
+	 * The removal events carry the indexes the connections had before any of them were removed.
+	 */
+	private void removeNodesConnections(int id) 
 	{
-		for (int x=0; x<this.conList.size(); x++)
+		int[] incident = this.conStore.incidentIds(id);
+		if (incident.length == 0)
+			return;
+		
+		NetworkChangeEvent[] removed = new NetworkChangeEvent[incident.length];
+		for (int i=0; i<incident.length; i++)
 		{
-			NetworkConnection c = this.conList.get(x);
-			if (c.getNode1().compareTo(n.getName())==0 || c.getNode2().compareTo(n.getName())==0)
-			{
-				removeConnection(x);
-			}
+			int pos = this.conStore.positionOf(incident[i]);
+			if (getConnectionNode1Id(pos) < 0 || getConnectionNode2Id(pos) < 0)
+				removeDangling(this.conStore.getView(pos));
+			removed[i] = NetworkChangeEvent.connectionRemoved(incident[i], pos, getConnectionNode1Id(pos), getConnectionSide1(pos),
+																getConnectionNode2Id(pos), getConnectionSide2(pos));
+		}
+		this.conStore.removeIncident(id);
+		this.adjacency = null;
+		
+		for (int i=0; i<removed.length; i++)
+		{
+			if (wantsEvent())
+				fireConnectionChanged(removed[i]);
 		}
 	}
 	
 	public void removeNode(NetworkNode n)
 	{
-		removeNode(this.nodeList.indexOf(n));
+		removeNode(getNodeIndex(n));
 	}
 	
 	/**
@@ -334,58 +796,317 @@ public class NetworkModel
 	{
 		NetworkCommand c = new NewConnectionCommand(newConnection, this);
 		c.doit();
-		undoStack.push(c);
-		redoStack.clear();
-	}
-	
-	public void addConnectionToList(NetworkConnection c)
-	{
-		this.conList.add(c);
+		pushCommand(c);
 	}
 	
 	/**
-	 * Returns the number of network connections in this model.
+	 * Binds each end of c to a node id and appends it to the list of connections.
+	 * An end naming a node that is not in the model yet stays unbound until
+	 * a node with that name is added.
 	 */
-	public int nConnections()
+	public void addConnectionToList(NetworkConnection c)
 	{
-		return this.conList.size();
+		int id1 = resolveNodeId(c.getNode1Id(), c.getNode1());
+		int id2 = resolveNodeId(c.getNode2Id(), c.getNode2());
+		int id = this.conStore.add(id1, c.getSide1(), id2, c.getSide2(), c.getId());
+		c.attach(this, this.conStore, id);
+		this.conStore.setView(this.conStore.size()-1, c);
+		this.adjacency = null;
+		if (id1 < 0 || id2 < 0)
+			addDangling(c);
+		journalConnectionAdded();
+		if (wantsEvent())
+			fireConnectionChanged(NetworkChangeEvent.connectionAdded(id, nConnections()-1, id1, c.getSide1(), id2, c.getSide2()));
 	}
 	
 	/**
-	 * Returns the specified NetworkConnection. Indexes begin at zero.
-	 * @param i index of the desired object. Must be less than nConnections()
+	 * Appends a connection without recording an undo step.  A NetworkConnection is
+	 * only created for it if one of its ends names a node that is not in the model.
+	 * Used when loading a file.
 	 */
-	public NetworkConnection getConnection(int i)
+	void appendConnection(String node1, Side side1, String node2, Side side2)
 	{
-		return this.conList.get(i);
+		int id1 = this.nodeStore.firstIdNamed(node1);
+		int id2 = this.nodeStore.firstIdNamed(node2);
+		if (id1 < 0 || id2 < 0)
+			addConnectionToList(new NetworkConnection(node1, side1, node2, side2));
+		else
+			appendConnection(id1, side1, id2, side2);
 	}
 	
 	/**
-	 * Removes the specified object from the list of connections
-	 * @param i the index of the object to be removed.
+	 * Appends a connection between two nodes already in the model without recording
+	 * an undo step.
 	 */
-	public void removeConnection(int i)
+	void appendConnection(int id1, Side side1, int id2, Side side2)
 	{
-		NetworkConnection c =this.conList.remove(i);
-		connectionChanged(c);
+		int id = this.conStore.add(id1, side1, id2, side2, -1);
+		this.adjacency = null;
+		journalConnectionAdded();
+		if (wantsEvent())
+			fireConnectionChanged(NetworkChangeEvent.connectionAdded(id, nConnections()-1, id1, side1, id2, side2));
 	}
 	
-	public void removeConnection(NetworkConnection c)
+	private void journalConnectionAdded()
 	{
-		removeConnection(this.conList.indexOf(c));
+		if (this.journal == null)
+			return;
+		int i = nConnections()-1;
+		if (boundByName(i))
+			this.journal.connectionAdded(getConnectionNode1(i), getConnectionSide1(i), getConnectionNode2(i), getConnectionSide2(i));
+		else
+			this.journal.snapshotLost();
 	}
-
+	
 	/**
-	 * Registers a NetworkListener for notifications
-	 * @param l The NetworkListener to be notified.
+	 * @return true if each end of connection i is bound to the first node with its
+	 * 	name, or left unbound when there is none, as loading it from a file would do
 	 */
-	public void addNetworkListener(NetworkListener l)
+	private boolean boundByName(int i)
 	{
-		this.listeners.add(l);
+		return this.nodeStore.firstIdNamed(getConnectionNode1(i)) == getConnectionNode1Id(i)
+			&& this.nodeStore.firstIdNamed(getConnectionNode2(i)) == getConnectionNode2Id(i);
 	}
 	
 	/**
-	 * Removes a NetworkListener from notifications
+	 * @return true if every connection is bound by name.  Otherwise loading the
+	 * 	model's file would bind some connections to other nodes of the same name,
+	 * 	and journal records, which refer to connections by index, would not replay.
+	 */
+	private boolean allBoundByName()
+	{
+		for (int i = 0; i < nConnections(); i++)
+		{
+			if (!boundByName(i))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the id of the first node called nodeName, or -1 if there is none
+	 */
+	int getNodeIdNamed(String nodeName)
+	{
+		return this.nodeStore.firstIdNamed(nodeName);
+	}
+	
+	/**
+	 * Keeps id if it still names a node called nodeName, otherwise looks the name up.
+	 */
+	private int resolveNodeId(int id, String nodeName)
+	{
+		int pos = getNodeIndexById(id);
+		if (pos >= 0 && getNodeName(pos).compareTo(nodeName)==0)
+			return id;
+		return this.nodeStore.firstIdNamed(nodeName);
+	}
+	
+	/**
+	 * Indexes the unbound ends of c by the node name they are waiting for
+	 */
+	private void addDangling(NetworkConnection c)
+	{
+		if (c.getNode1Id() < 0)
+			addDangling(c, c.getNode1());
+		if (c.getNode2Id() < 0 && (c.getNode1Id() >= 0 || c.getNode2().compareTo(c.getNode1())!=0))
+			addDangling(c, c.getNode2());
+	}
+	
+	private void addDangling(NetworkConnection c, String nodeName)
+	{
+		ArrayList<NetworkConnection> bucket = this.danglingIndex.get(nodeName);
+		if (bucket == null)
+		{
+			bucket = new ArrayList<NetworkConnection>(1);
+			this.danglingIndex.put(nodeName, bucket);
+		}
+		bucket.add(c);
+	}
+	
+	private void removeDangling(NetworkConnection c)
+	{
+		if (c.getNode1Id() < 0)
+			removeDangling(c, c.getNode1());
+		if (c.getNode2Id() < 0)
+			removeDangling(c, c.getNode2());
+	}
+	
+	private void removeDangling(NetworkConnection c, String nodeName)
+	{
+		ArrayList<NetworkConnection> bucket = this.danglingIndex.get(nodeName);
+		if (bucket != null)
+		{
+			bucket.remove(c);
+			if (bucket.isEmpty())
+				this.danglingIndex.remove(nodeName);
+		}
+	}
+	
+	/**
+	 * Binds connections that were waiting for a node with the name of node id.
+	 */
+	private void bindDanglingConnections(int id)
+	{
+		if (this.danglingIndex.isEmpty())
+			return;
+		String name = getNodeName(getNodeIndexById(id));
+		if (this.nodeStore.firstIdNamed(name) != id)
+			return;
+		ArrayList<NetworkConnection> waiting = this.danglingIndex.remove(name);
+		if (waiting == null)
+			return;
+		for (int i=0; i<waiting.size(); i++)
+		{
+			NetworkConnection c = waiting.get(i);
+			removeDangling(c); //clears any other end, it is re-added below
+			int id1 = (c.getNode1Id() < 0 && c.getNode1().compareTo(name)==0) ? id : c.getNode1Id();
+			int id2 = (c.getNode2Id() < 0 && c.getNode2().compareTo(name)==0) ? id : c.getNode2Id();
+			this.conStore.setEnds(this.conStore.positionOf(c.getId()), id1, id2);
+			if (id1 < 0 || id2 < 0)
+				addDangling(c);
+		}
+		this.adjacency = null;
+	}
+	
+	/**
+	 * @param n a node in this model
+	 * @return the connections attached to n, in connection order
+	 */
+	public ArrayList<NetworkConnection> getConnections(NetworkNode n)
+	{
+		ArrayList<NetworkConnection> result = new ArrayList<NetworkConnection>();
+		if (getNodeIndex(n) < 0)
+			return result;
+		for (int pos : getConnectionIndexes(n.getId()))
+			result.add(this.conStore.getView(pos));
+		return result;
+	}
+	
+	/**
+	 * @param nodeId the id of a node in this model
+	 * @return the indexes of the connections attached to the node, in increasing order
+	 */
+	public int[] getConnectionIndexes(int nodeId)
+	{
+		int[] incident = this.conStore.incidentIds(nodeId);
+		for (int i=0; i<incident.length; i++)
+			incident[i] = this.conStore.positionOf(incident[i]);
+		Arrays.sort(incident);
+		return incident;
+	}
+	
+	/**
+	 * @return a compressed sparse row view of the connections attached to each node.
+	 * 	It is rebuilt on the first call after nodes or connections are added or removed.
+	 */
+	public NetworkAdjacency getAdjacency()
+	{
+		if (this.adjacency == null)
+			this.adjacency = this.conStore.buildAdjacency(this.nodeStore.idLimit());
+		return this.adjacency;
+	}
+	
+	/**
+	 * Returns the number of network connections in this model.
+	 */
+	public int nConnections()
+	{
+		return this.conStore.size();
+	}
+	
+	/**
+	 * Returns the specified NetworkConnection. Indexes begin at zero.
+	 * @param i index of the desired object. Must be less than nConnections()
+	 */
+	public NetworkConnection getConnection(int i)
+	{
+		return this.conStore.getView(i);
+	}
+	
+	/**
+	 * The getConnectionId, getConnectionNode1Id, getConnectionSide1 (and so on)
+	 * methods read the connection store directly, without creating a
+	 * NetworkConnection.  Loops over every connection should use them.
+	 * @param i index of the connection. Must be less than nConnections()
+	 * @return the id of the connection, as returned by NetworkConnection.getId()
+	 */
+	public int getConnectionId(int i)
+	{
+		return this.conStore.getId(i);
+	}
+	
+	/**
+	 * @return the id of the node at the first end of connection i, or -1 if that end is not bound
+	 */
+	public int getConnectionNode1Id(int i)
+	{
+		return this.conStore.getNode1(i);
+	}
+	
+	public int getConnectionNode2Id(int i)
+	{
+		return this.conStore.getNode2(i);
+	}
+	
+	public Side getConnectionSide1(int i)
+	{
+		return this.conStore.getSide1(i);
+	}
+	
+	public Side getConnectionSide2(int i)
+	{
+		return this.conStore.getSide2(i);
+	}
+	
+	/**
+	 * @return the name of the node at the first end of connection i
+	 */
+	public String getConnectionNode1(int i)
+	{
+		int node = getNodeIndexById(this.conStore.getNode1(i));
+		return (node >= 0) ? getNodeName(node) : getConnection(i).getNode1();
+	}
+	
+	public String getConnectionNode2(int i)
+	{
+		int node = getNodeIndexById(this.conStore.getNode2(i));
+		return (node >= 0) ? getNodeName(node) : getConnection(i).getNode2();
+	}
+	
+	/**
+	 * Removes the specified object from the list of connections
+	 * @param i the index of the object to be removed.
+	 */
+	public void removeConnection(int i)
+	{
+		NetworkConnection c = getConnection(i);
+		NetworkChangeEvent e = NetworkChangeEvent.connectionRemoved(c.getId(), i, c.getNode1Id(), c.getSide1(), c.getNode2Id(), c.getSide2());
+		if (this.journal != null)
+			this.journal.connectionRemoved(i);
+		removeDangling(c);
+		this.conStore.remove(i);
+		this.adjacency = null;
+		if (wantsEvent())
+			fireConnectionChanged(e);
+	}
+	
+	public void removeConnection(NetworkConnection c)
+	{
+		removeConnection(c.isIn(this.conStore) ? this.conStore.positionOf(c.getId()) : -1);
+	}
+
+	/**
+	 * Registers a NetworkListener for notifications
+	 * @param l The NetworkListener to be notified.
+	 */
+	public void addNetworkListener(NetworkListener l)
+	{
+		this.listeners.add(l);
+	}
+	
+	/**
+	 * Removes a NetworkListener from notifications
 	 * @param l The NetworkListener to be removed.
 	 */
 	public void removeNetworkListener(NetworkListener l)
@@ -401,25 +1122,24 @@ public class NetworkModel
 		return this.listeners.size();
 	}
 	
-	public void nodeChanged(NetworkNode networkNode) 
+	private void fireNodeChanged(NetworkChangeEvent e) 
 	{
-		this.unsavedChanges = true;
 		for (int i=0; i<listeners.size(); i++)
 		{
-			listeners.get(i).nodeChanged(networkNode);
+			listeners.get(i).nodeChanged(e);
 		}
 	}
 	
-	public void connectionChanged(NetworkConnection c) 
+	private void fireConnectionChanged(NetworkChangeEvent e) 
 	{
-		this.unsavedChanges = true;
 		for (int i=0; i<this.listeners.size(); i++)
-			listeners.get(i).connectionChanged(c);
+			listeners.get(i).connectionChanged(e);
 	}
 	
 	public void transformChanged()
 	{
-		this.unsavedChanges = true;
+		if (!wantsEvent())
+			return;
 		for (int i=0; i<this.listeners.size(); i++)
 			listeners.get(i).transformChanged();
 	}
@@ -442,6 +1162,10 @@ public class NetworkModel
 		boolean result = true;
 		System.out.println("testing NetworkModel");
 		
+		//Models read by the tests are cached in a directory of their own, not the user's
+		File cacheDir = new File(System.getProperty("java.io.tmpdir"), "network-cache-test-"+System.nanoTime());
+		NetworkModelCache.setDirectory(cacheDir);
+		
 		result &= testConstructors();
 		
 		try {
@@ -452,17 +1176,38 @@ public class NetworkModel
 			result &= testAddNode();
 			result &= testnNodes();
 			result &= testGetNode();
+			result &= testGetNodeByName();
 			result &= testRemoveNode();
+			result &= testGetConnectionsOfNode();
 			result &= testAddConnection();
 			result &= testnConnections();
 			result &= testGetConnection();
 			result &= testRemoveConnection();
+			result &= testBatch();
+			result &= testParseFile();
+			result &= testParallelLoad();
+			result &= testBinaryFormat();
+			result &= testJournal();
+			result &= testBeginSave();
+			result &= testModelCache();
+			result &= testCompressed();
+			result &= testOtherFormats();
+			result &= testReload();
 			
 			//TODO
 			
-		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 			result = false;
+		} finally {
+			NetworkModelCache.setDirectory(NetworkModelCache.DEFAULT_DIRECTORY);
+			File[] entries = cacheDir.listFiles();
+			if (entries != null)
+			{
+				for (File entry : entries)
+					entry.delete();
+			}
+			cacheDir.delete();
 		}
 		
 		if (result)
@@ -486,7 +1231,7 @@ public class NetworkModel
 			result = false;
 		} catch (FileNotFoundException e) {
 			// Should throw this exception.
-		} catch (UnsupportedEncodingException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 			result = false;
 		}
@@ -494,7 +1239,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testGetFileName() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testGetFileName() throws IOException
 	{
 		boolean result = true;
 		
@@ -510,7 +1255,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testSetFileName() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testSetFileName() throws IOException
 	{
 		boolean result = true;
 
@@ -533,7 +1278,7 @@ public class NetworkModel
 	}
 	
 	
-	private static boolean testUnsavedChanges() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testUnsavedChanges() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -554,7 +1299,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testAddNode() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testAddNode() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel();
@@ -571,7 +1316,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testnNodes() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testnNodes() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -589,7 +1334,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testGetNode() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testGetNode() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -601,7 +1346,55 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testRemoveNode() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testGetNodeByName() throws IOException
+	{
+		boolean result = true;
+		NetworkModel nm1 = new NetworkModel();
+		NetworkNode n1 = new NetworkNode("test1", 0,0);
+		NetworkNode n2 = new NetworkNode("test1", 10,10);
+		nm1.newNode(n1);
+		nm1.newNode(n2);
+		if (nm1.getNode("test1") != n1)
+		{
+			System.out.println("Failed: getNode(String) should return the first match");
+			result = false;
+		}
+		nm1.changeNodeName(n1, "renamed");
+		if (nm1.getNode("renamed") != n1 || nm1.getNode("test1") != n2)
+		{
+			System.out.println("Failed: getNode(String) after rename");
+			result = false;
+		}
+		nm1.removeNode(n2);
+		if (nm1.getNode("test1") != null)
+		{
+			System.out.println("Failed: getNode(String) after removeNode");
+			result = false;
+		}
+
+		//A node renamed to a name already in use comes first if it is first in the list
+		NetworkModel nm2 = new NetworkModel();
+		nm2.newNode(new NetworkNode("a", 0,0));
+		nm2.newNode(new NetworkNode("x", 0,0));
+		nm2.newNode(new NetworkNode("b", 0,0));
+		nm2.newNode(new NetworkNode("c", 0,0));
+		nm2.changeNodeName(nm2.getNode(0), "c");
+		if (nm2.getNodeIndex(nm2.getNode("c")) != 0)
+		{
+			System.out.println("Failed: getNode(String) should return the first match in the list after rename");
+			result = false;
+		}
+		nm2.changeNodeName(nm2.getNode(0), "a");
+		nm2.changeNodeName(nm2.getNode(2), "c");
+		if (nm2.getNodeIndex(nm2.getNode("c")) != 2)
+		{
+			System.out.println("Failed: getNode(String) after renaming back");
+			result = false;
+		}
+		return result;
+	}
+
+	private static boolean testRemoveNode() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -619,7 +1412,41 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testAddConnection() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testGetConnectionsOfNode() throws IOException
+	{
+		boolean result = true;
+		NetworkModel nm1 = new NetworkModel();
+		NetworkNode a = new NetworkNode("a", 0, 0);
+		NetworkNode b = new NetworkNode("b", 10, 10);
+		NetworkNode c = new NetworkNode("c", 20, 20);
+		nm1.newNode(a);
+		nm1.newNode(b);
+		nm1.newNode(c);
+		nm1.addConnection(new NetworkConnection("a", Side.R, "b", Side.L));
+		nm1.addConnection(new NetworkConnection("a", Side.B, "a", Side.T));
+		nm1.addConnection(new NetworkConnection("b", Side.R, "c", Side.L));
+		nm1.addConnection(new NetworkConnection("a", Side.T, "c", Side.T));
+		if (nm1.getConnections(a).size() != 3 || nm1.getConnections(c).size() != 2)
+		{
+			System.out.println("Failed: getConnections(NetworkNode)");
+			result = false;
+		}
+		nm1.changeNodeName(a, "z");
+		if (nm1.getConnections(a).size() != 3 || nm1.getConnection(1).getNode2().compareTo("z")!=0)
+		{
+			System.out.println("Failed: getConnections(NetworkNode) after rename");
+			result = false;
+		}
+		nm1.removeNode(a);
+		if (nm1.nConnections() != 1 || nm1.getConnections(b).size() != 1)
+		{
+			System.out.println("Failed: removeNode should remove all of the node's connections");
+			result = false;
+		}
+		return result;
+	}
+
+	private static boolean testAddConnection() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -633,7 +1460,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testnConnections() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testnConnections() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -645,7 +1472,7 @@ public class NetworkModel
 		return result;
 	}
 
-	private static boolean testGetConnection() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testGetConnection() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -665,7 +1492,7 @@ public class NetworkModel
 		return result;
 	}
 	
-	private static boolean testRemoveConnection() throws FileNotFoundException, UnsupportedEncodingException
+	private static boolean testRemoveConnection() throws IOException
 	{
 		boolean result = true;
 		NetworkModel nm1 = new NetworkModel("test\\test.txt");
@@ -689,6 +1516,687 @@ public class NetworkModel
 		}
 		return result;
 	}
+	
+	private static boolean testParseFile() throws IOException
+	{
+		boolean result = true;
+		
+		File f = File.createTempFile("parse", ".network");
+		f.deleteOnExit();
+		PrintWriter writer = new PrintWriter(f, "UTF-8");
+		writer.println("C \"a\" R \"b\" L");
+		writer.println("N 1.5 -2 \" a \"");
+		writer.println();
+		writer.println("N 3.0 4.0e1 \"b\"");
+		writer.close();
+		NetworkModel nm = new NetworkModel(f.getPath());
+		if (nm.nNodes() != 2 || nm.nConnections() != 1 || nm.getNodeX(0) != 1.5 || nm.getNodeY(0) != -2
+				|| !nm.getNodeName(0).equals("a") || nm.getNodeY(1) != 40 || nm.getConnectionNode2Id(0) != nm.getNodeId(1))
+		{
+			System.out.println("Failed: parseFile");
+			result = false;
+		}
+		if (nm.canUndo())
+		{
+			System.out.println("Failed: parseFile left commands to undo");
+			result = false;
+		}
+		
+		writer = new PrintWriter(f, "UTF-8");
+		writer.println("N 1 2 \"a\"");
+		writer.println("C \"a\" X \"a\" L");
+		writer.close();
+		try {
+			new NetworkModel(f.getPath());
+			System.out.println("Failed: parseFile accepted a bad side");
+			result = false;
+		} catch (NetworkFormatException e) {
+			if (e.getLineNumber() != 2 || e.getColumnNumber() != 7)
+			{
+				System.out.println("Failed: parseFile reported "+e.getMessage());
+				result = false;
+			}
+		}
+		
+		return result;
+	}
+	
+	private static boolean testParallelLoad() throws IOException
+	{
+		boolean result = true;
+		
+		File f = File.createTempFile("parallel", ".network");
+		f.deleteOnExit();
+		PrintWriter writer = new PrintWriter(f, "UTF-8");
+		for (int i=0; i<200; i++)
+		{
+			if (i%7 == 0)
+				writer.println(NetworkConnection.format("n"+(i+3), Side.L, "n"+(i/2), Side.T));
+			writer.println(NetworkNode.format("n"+(i%150), i, -i/2.0));
+			writer.println(NetworkConnection.format("n"+i, Side.R, "missing"+(i%3), Side.B));
+		}
+		writer.close();
+		
+		NetworkModel sequential = new NetworkModel(f.getPath());
+		NetworkModel parallel = new NetworkModel(f.getPath(), 100);
+		boolean same = sequential.nNodes() == parallel.nNodes() && sequential.nConnections() == parallel.nConnections();
+		for (int i=0; same && i<sequential.nNodes(); i++)
+		{
+			same = sequential.getNodeId(i) == parallel.getNodeId(i)
+					&& sequential.getNodeName(i).equals(parallel.getNodeName(i))
+					&& sequential.getNodeX(i) == parallel.getNodeX(i) && sequential.getNodeY(i) == parallel.getNodeY(i);
+		}
+		for (int i=0; same && i<sequential.nConnections(); i++)
+		{
+			same = sequential.getConnectionNode1Id(i) == parallel.getConnectionNode1Id(i)
+					&& sequential.getConnectionNode2Id(i) == parallel.getConnectionNode2Id(i)
+					&& sequential.getConnection(i).toString().equals(parallel.getConnection(i).toString());
+		}
+		if (!same)
+		{
+			System.out.println("Failed: parallel load differs from sequential load");
+			result = false;
+		}
+		
+		writer = new PrintWriter(f, "UTF-8");
+		for (int i=0; i<50; i++)
+			writer.println(NetworkNode.format("n"+i, i, i));
+		writer.println("N 1 x \"bad\"");
+		writer.close();
+		try {
+			new NetworkModel(f.getPath(), 100);
+			System.out.println("Failed: parallel load accepted a bad number");
+			result = false;
+		} catch (NetworkFormatException e) {
+			if (e.getLineNumber() != 51 || e.getColumnNumber() != 5)
+			{
+				System.out.println("Failed: parallel load reported "+e.getMessage());
+				result = false;
+			}
+		}
+		
+		return result;
+	}
+	
+	private static boolean testBinaryFormat() throws IOException
+	{
+		boolean result = true;
+		
+		File text = File.createTempFile("binary", ".network");
+		File binary = File.createTempFile("binary", NetworkBinaryFormat.EXTENSION);
+		File back = File.createTempFile("binary", ".network");
+		text.deleteOnExit();
+		binary.deleteOnExit();
+		back.deleteOnExit();
+		PrintWriter writer = new PrintWriter(text, "UTF-8");
+		writer.println(NetworkNode.format("Central", 100.25, -3e-7));
+		writer.println(NetworkNode.format("Serveur \u00e9", 1e300, 0));
+		writer.println(NetworkNode.format("Central", 5, 5));
+		writer.println(NetworkConnection.format("Central", Side.R, "Serveur \u00e9", Side.L));
+		writer.println(NetworkConnection.format("missing", Side.T, "Central", Side.B));
+		writer.close();
+		
+		NetworkBinaryFormat.convert(text.getPath(), binary.getPath());
+		NetworkBinaryFormat.convert(binary.getPath(), back.getPath());
+		if (!NetworkBinaryFormat.isBinary(binary.getPath()) || NetworkBinaryFormat.isBinary(back.getPath()))
+		{
+			System.out.println("Failed: binary format not detected");
+			result = false;
+		}
+		Scanner original = new Scanner(text, "UTF-8").useDelimiter("\\A");
+		Scanner converted = new Scanner(back, "UTF-8").useDelimiter("\\A");
+		if (!original.next().equals(converted.next()))
+		{
+			System.out.println("Failed: binary format round trip");
+			result = false;
+		}
+		original.close();
+		converted.close();
+		
+		return result;
+	}
+	
+	private static boolean testJournal() throws IOException
+	{
+		boolean result = true;
+		
+		File f = File.createTempFile("journal", ".network");
+		File expected = File.createTempFile("expected", ".network");
+		File actual = File.createTempFile("actual", ".network");
+		f.deleteOnExit();
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		new File(NetworkJournal.pathFor(f.getPath())).deleteOnExit();
+		PrintWriter writer = new PrintWriter(f, "UTF-8");
+		writer.println(NetworkNode.format("a", 1, 2));
+		writer.println(NetworkNode.format("b", 3, 4));
+		writer.println(NetworkConnection.format("a", Side.R, "b", Side.L));
+		writer.close();
+		long snapshotSize = f.length();
+		
+		NetworkModel nm = new NetworkModel(f.getPath());
+		nm.setJournaled(true);
+		NetworkNode c = new NetworkNode("c", 5, 6);
+		nm.newNode(c);
+		nm.changeNodePosition(nm.getNode(0), 10, 20);
+		nm.changeNodeName(nm.getNode(1), "b2");
+		nm.addConnection(new NetworkConnection(c, Side.T, nm.getNode(0), Side.B));
+		nm.addConnection(new NetworkConnection("c", Side.B, "later", Side.T));
+		nm.removeConnection(0);
+		nm.removeNode(0);
+		nm.undo();
+		nm.save();
+		nm.saveAs(expected.getPath());
+		
+		if (f.length() != snapshotSize || !NetworkJournal.exists(f.getPath()))
+		{
+			System.out.println("Failed: journaled save rewrote the snapshot");
+			result = false;
+		}
+		NetworkModel reloaded = new NetworkModel(f.getPath());
+		reloaded.saveAs(actual.getPath());
+		Scanner e = new Scanner(expected, "UTF-8").useDelimiter("\\A");
+		Scanner a = new Scanner(actual, "UTF-8").useDelimiter("\\A");
+		if (!e.next().equals(a.next()) || !reloaded.isJournaled())
+		{
+			System.out.println("Failed: journal replay");
+			result = false;
+		}
+		e.close();
+		a.close();
+		
+		nm.saveAs(f.getPath());
+		if (NetworkJournal.exists(f.getPath()))
+		{
+			System.out.println("Failed: saveAs left the journal behind");
+			result = false;
+		}
+		
+		//Removing a node after one of its connections was removed and added again.  Its
+		//connections are no longer listed by the node in connection order, but the
+		//journal's later records must still find the same connections on reload.
+		File g = File.createTempFile("churn", ".network");
+		g.deleteOnExit();
+		new File(NetworkJournal.pathFor(g.getPath())).deleteOnExit();
+		nm = new NetworkModel(g.getPath());
+		for (String name : new String[] {"A", "B", "C", "D"})
+			nm.newNode(new NetworkNode(name, 0, 0));
+		String[][] ends = {{"A", "B"}, {"B", "C"}, {"A", "C"}, {"C", "D"}, {"B", "D"}};
+		for (String[] end : ends)
+			nm.addConnection(new NetworkConnection(end[0], Side.R, end[1], Side.L));
+		nm.removeConnection(0);
+		nm.addConnection(new NetworkConnection("A", Side.R, "B", Side.L));
+		nm.save();
+		nm.setJournaled(true);
+		nm.removeNode(1);
+		nm.removeConnection(1);
+		nm.save();
+		nm.saveAs(expected.getPath());
+		new NetworkModel(g.getPath()).saveAs(actual.getPath());
+		e = new Scanner(expected, "UTF-8").useDelimiter("\\A");
+		a = new Scanner(actual, "UTF-8").useDelimiter("\\A");
+		if (!e.next().equals(a.next()))
+		{
+			System.out.println("Failed: journal replay after removing a node's connections");
+			result = false;
+		}
+		e.close();
+		a.close();
+		
+		//Two nodes share a name and a connection is bound to the second.  The journal
+		//names the connection's ends, which would bind it to the first on reload.
+		File h = File.createTempFile("names", ".network");
+		h.deleteOnExit();
+		new File(NetworkJournal.pathFor(h.getPath())).deleteOnExit();
+		nm = new NetworkModel(h.getPath());
+		for (String name : new String[] {"X", "X", "Y", "W"})
+			nm.newNode(new NetworkNode(name, 0, 0));
+		nm.addConnection(new NetworkConnection("X", Side.R, "W", Side.L));
+		nm.save();
+		nm.setJournaled(true);
+		nm.addConnection(new NetworkConnection(nm.getNode(1), Side.R, nm.getNode(2), Side.L));
+		nm.removeConnection(0);
+		nm.removeNode(0);
+		nm.save();
+		nm.saveAs(expected.getPath());
+		new NetworkModel(h.getPath()).saveAs(actual.getPath());
+		e = new Scanner(expected, "UTF-8").useDelimiter("\\A");
+		a = new Scanner(actual, "UTF-8").useDelimiter("\\A");
+		if (!e.next().equals(a.next()))
+		{
+			System.out.println("Failed: journal replay of a connection to a node sharing its name");
+			result = false;
+		}
+		e.close();
+		a.close();
+		
+		return result;
+	}
+	
+	private static boolean testBeginSave() throws IOException
+	{
+		boolean result = true;
+		
+		File f = File.createTempFile("snapshot", ".network");
+		f.deleteOnExit();
+		NetworkModel nm = new NetworkModel(f.getPath());
+		nm.newNode(new NetworkNode("a", 1, 2));
+		NetworkSnapshot snapshot = nm.beginSave();
+		nm.newNode(new NetworkNode("b", 3, 4));
+		snapshot.write();
+		nm.endSave(snapshot, true);
+		if (!nm.unsavedChanges() || nm.isSaving() || new NetworkModel(f.getPath()).nNodes() != 1)
+		{
+			System.out.println("Failed: edits made during a save were lost");
+			result = false;
+		}
+		
+		nm.save();
+		if (nm.unsavedChanges() || new NetworkModel(f.getPath()).nNodes() != 2)
+		{
+			System.out.println("Failed: save after an edit during a save");
+			result = false;
+		}
+
+		//The snapshot shares the stores, which must copy before changing what it sees
+		File expected = File.createTempFile("expected", ".network");
+		expected.deleteOnExit();
+		nm.addConnection(new NetworkConnection(nm.getNode(0), Side.R, nm.getNode(1), Side.L));
+		nm.addConnection(new NetworkConnection("b", Side.T, "nowhere", Side.B));
+		nm.saveAs(expected.getPath());
+		snapshot = nm.beginSave();
+		nm.changeNodeName(nm.getNode(0), "renamed");
+		nm.changeNodePosition(nm.getNode(1), 30, 40);
+		nm.newNode(new NetworkNode("nowhere", 5, 6));
+		nm.removeConnection(0);
+		nm.removeNode(0);
+		snapshot.write();
+		nm.endSave(snapshot, true);
+		Scanner e = new Scanner(expected, "UTF-8").useDelimiter("\\A");
+		Scanner a = new Scanner(f, "UTF-8").useDelimiter("\\A");
+		if (!e.next().equals(a.next()))
+		{
+			System.out.println("Failed: edits made during a save changed the snapshot");
+			result = false;
+		}
+		e.close();
+		a.close();
+		
+		return result;
+	}
+	
+	private static boolean testModelCache() throws IOException
+	{
+		boolean result = true;
+		
+		File dir = File.createTempFile("cache", "");
+		dir.delete();
+		File f = File.createTempFile("cached", ".network");
+		File g = File.createTempFile("cached", ".network");
+		File expected = File.createTempFile("expected", ".network");
+		File actual = File.createTempFile("actual", ".network");
+		f.deleteOnExit();
+		g.deleteOnExit();
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+		PrintWriter writer = new PrintWriter(f, "UTF-8");
+		writer.println(NetworkNode.format("a", 1, 2));
+		writer.println(NetworkConnection.format("a", Side.R, "b", Side.L));
+		writer.println(NetworkNode.format("b", 3.5, -4));
+		writer.close();
+		new NetworkModel(f.getPath()).saveAs(g.getPath());
+		
+		File previous = NetworkModelCache.getDirectory();
+		try {
+			//Models are read with the cache off so that entries are only written here
+			NetworkModelCache.setDirectory(null);
+			NetworkModelCache.setMinFileSize(0);
+			NetworkModel nm = new NetworkModel(f.getPath());
+			nm.saveAs(expected.getPath());
+			NetworkModelCache.setDirectory(dir);
+			Thread writing = NetworkModelCache.loaded(nm, f.getPath());
+			if (writing != null)
+				writing.join();
+			if (NetworkModelCache.open(f.getPath()) == null)
+			{
+				System.out.println("Failed: model was not cached");
+				result = false;
+			}
+			new NetworkModel(f.getPath()).saveAs(actual.getPath());
+			Scanner e = new Scanner(expected, "UTF-8").useDelimiter("\\A");
+			Scanner a = new Scanner(actual, "UTF-8").useDelimiter("\\A");
+			if (!e.next().equals(a.next()))
+			{
+				System.out.println("Failed: model read from the cache");
+				result = false;
+			}
+			e.close();
+			a.close();
+			
+			//The entry is keyed by absolute path, so a relative path finds it too
+			String relative = new File("").getAbsoluteFile().toPath().relativize(f.getAbsoluteFile().toPath()).toString();
+			if (NetworkModelCache.open(relative) == null)
+			{
+				System.out.println("Failed: cache entry not found by relative path");
+				result = false;
+			}
+			
+			//Same size and time, different contents
+			long modified = f.lastModified();
+			writer = new PrintWriter(f, "UTF-8");
+			writer.println(NetworkNode.format("z", 1, 2));
+			writer.println(NetworkConnection.format("z", Side.R, "b", Side.L));
+			writer.println(NetworkNode.format("b", 3.5, -4));
+			writer.close();
+			f.setLastModified(modified);
+			if (NetworkModelCache.open(f.getPath()) != null)
+			{
+				System.out.println("Failed: rewritten file's cache entry was used");
+				result = false;
+			}
+			
+			writer = new PrintWriter(new FileOutputStream(f, true));
+			writer.println(NetworkNode.format("c", 5, 6));
+			writer.close();
+			if (NetworkModelCache.open(f.getPath()) != null)
+			{
+				System.out.println("Failed: stale cache entry was used");
+				result = false;
+			}
+			
+			//Same size and time, changed only in the middle of a large file
+			writer = new PrintWriter(f, "UTF-8");
+			for (int i=0; i<20000; i++)
+				writer.println(NetworkNode.format("node "+i, i, i));
+			writer.close();
+			NetworkModelCache.setDirectory(null);
+			nm = new NetworkModel(f.getPath());
+			NetworkModelCache.setDirectory(dir);
+			writing = NetworkModelCache.loaded(nm, f.getPath());
+			if (writing != null)
+				writing.join();
+			modified = f.lastModified();
+			RandomAccessFile middle = new RandomAccessFile(f, "rw");
+			middle.seek(middle.length()/2);
+			int b = middle.read();
+			middle.seek(middle.length()/2);
+			middle.write(b == '9' ? '8' : '9');
+			middle.close();
+			f.setLastModified(modified);
+			if (NetworkModelCache.open(f.getPath()) != null)
+			{
+				System.out.println("Failed: file changed in the middle read from its cache entry");
+				result = false;
+			}
+			
+			NetworkModelCache.setDirectory(null);
+			nm = new NetworkModel(g.getPath());
+			NetworkModelCache.setDirectory(dir);
+			NetworkModelCache.setMaxSize(1);
+			writing = NetworkModelCache.loaded(nm, g.getPath());
+			if (writing != null)
+				writing.join();
+			if (NetworkModelCache.open(g.getPath()) == null || dir.listFiles().length != 1)
+			{
+				System.out.println("Failed: least recently used entries were not evicted");
+				result = false;
+			}
+		} catch (InterruptedException e) {
+			result = false;
+		} finally {
+			NetworkModelCache.setDirectory(previous);
+			NetworkModelCache.setMaxSize(NetworkModelCache.DEFAULT_MAX_SIZE);
+			NetworkModelCache.setMinFileSize(NetworkModelCache.MIN_FILE_SIZE);
+			for (File entry : dir.listFiles())
+				entry.delete();
+			dir.delete();
+		}
+		
+		return result;
+	}
+	
+	private static boolean testCompressed() throws IOException
+	{
+		boolean result = true;
+		
+		File text = File.createTempFile("compressed", ".network");
+		File gz = File.createTempFile("compressed", ".network"+NetworkCompression.EXTENSION);
+		File binary = File.createTempFile("compressed", NetworkBinaryFormat.EXTENSION+NetworkCompression.EXTENSION);
+		File back = File.createTempFile("compressed", ".network");
+		text.deleteOnExit();
+		gz.deleteOnExit();
+		binary.deleteOnExit();
+		back.deleteOnExit();
+		PrintWriter writer = new PrintWriter(text, "UTF-8");
+		for (int i=0; i<1000; i++)
+			writer.println(NetworkNode.format("node "+i, i, -i/8.0));
+		for (int i=0; i<1000; i++)
+			writer.println(NetworkConnection.format("node "+i, Side.R, "node "+(i*7)%1000, Side.T));
+		writer.close();
+		
+		new NetworkModel(text.getPath()).saveAs(gz.getPath());
+		new NetworkModel(gz.getPath()).saveAs(binary.getPath());
+		new NetworkModel(binary.getPath()).saveAs(back.getPath());
+		if (!NetworkCompression.isCompressed(gz.getPath()) || !NetworkCompression.isCompressed(binary.getPath())
+			|| !NetworkBinaryFormat.isBinary(binary.getPath()) || gz.length() >= text.length())
+		{
+			System.out.println("Failed: files were not compressed");
+			result = false;
+		}
+		Scanner original = new Scanner(text, "UTF-8").useDelimiter("\\A");
+		Scanner converted = new Scanner(back, "UTF-8").useDelimiter("\\A");
+		if (!original.next().equals(converted.next()))
+		{
+			System.out.println("Failed: compressed round trip");
+			result = false;
+		}
+		original.close();
+		converted.close();
+		
+		return result;
+	}
+	
+	private static boolean testOtherFormats() throws IOException
+	{
+		boolean result = true;
+		
+		File text = File.createTempFile("formats", ".network");
+		File graphml = File.createTempFile("formats", GraphMLFormat.EXTENSION);
+		File dot = File.createTempFile("formats", DotFormat.EXTENSION+NetworkCompression.EXTENSION);
+		File back = File.createTempFile("formats", ".network");
+		text.deleteOnExit();
+		graphml.deleteOnExit();
+		dot.deleteOnExit();
+		back.deleteOnExit();
+		PrintWriter writer = new PrintWriter(text, "UTF-8");
+		for (int i=0; i<500; i++)
+			writer.println(NetworkNode.format("n\u00f6de <"+i+"> & \\", i*1.5, -i/8.0));
+		for (int i=0; i<500; i++)
+			writer.println(NetworkConnection.format("n\u00f6de <"+i+"> & \\", Side.values()[i%4], "n\u00f6de <"+(i*7)%500+"> & \\", Side.values()[(i/4)%4]));
+		writer.close();
+		
+		new NetworkModel(text.getPath()).saveAs(graphml.getPath());
+		new NetworkModel(graphml.getPath()).saveAs(dot.getPath());
+		new NetworkModel(dot.getPath()).saveAs(back.getPath());
+		if (!NetworkCompression.isCompressed(dot.getPath()))
+		{
+			System.out.println("Failed: DOT file was not compressed");
+			result = false;
+		}
+		Scanner original = new Scanner(text, "UTF-8").useDelimiter("\\A");
+		Scanner converted = new Scanner(back, "UTF-8").useDelimiter("\\A");
+		if (!original.next().equals(converted.next()))
+		{
+			System.out.println("Failed: GraphML and DOT round trip");
+			result = false;
+		}
+		original.close();
+		converted.close();
+		
+		return result;
+	}
+	
+	private static boolean testReload() throws IOException
+	{
+		boolean result = true;
+		
+		File f = File.createTempFile("watched", ".network");
+		File changed = File.createTempFile("changed", ".network");
+		f.deleteOnExit();
+		changed.deleteOnExit();
+		PrintWriter writer = new PrintWriter(f, "UTF-8");
+		writer.println(NetworkNode.format("a", 1, 2));
+		writer.println(NetworkNode.format("b", 3, 4));
+		writer.println(NetworkNode.format("c", 5, 6));
+		writer.println(NetworkConnection.format("a", Side.R, "b", Side.L));
+		writer.println(NetworkConnection.format("b", Side.T, "c", Side.B));
+		writer.close();
+		writer = new PrintWriter(changed, "UTF-8");
+		writer.println(NetworkNode.format("a", 10, 20));
+		writer.println(NetworkNode.format("b2", 3, 4));
+		writer.println(NetworkNode.format("d", 7, 8));
+		writer.println(NetworkConnection.format("a", Side.R, "b2", Side.L));
+		writer.println(NetworkConnection.format("d", Side.T, "a", Side.B));
+		writer.close();
+		
+		NetworkModel nm = new NetworkModel(f.getPath());
+		int a = nm.getNodeId(0);
+		int b = nm.getNodeId(1);
+		int ab = nm.getConnection(0).getId();
+		final int[] notifications = new int[1];
+		nm.addNetworkListener(new NetworkListener() {
+			public void nodeChanged(NetworkChangeEvent e) { notifications[0]++; }
+			public void connectionChanged(NetworkChangeEvent e) { notifications[0]++; }
+			public void transformChanged() { notifications[0]++; }
+			public void networkChanged() { notifications[0]++; }
+		});
+		
+		nm.setWatched(true);
+		nm.watcher.apply(NetworkRecords.read(changed.getPath()));
+		nm.setWatched(false);
+		
+		if (notifications[0] != 1 || nm.unsavedChanges())
+		{
+			System.out.println("Failed: reload was not applied as one change");
+			result = false;
+		}
+		if (nm.getNodeIndexById(a) != 0 || nm.getNodeX(0) != 10 || nm.getNodeIndexById(b) != 1
+			|| !nm.getNodeName(1).equals("b2") || nm.getConnectionIndexById(ab) != 0)
+		{
+			System.out.println("Failed: reload replaced nodes and connections that were kept");
+			result = false;
+		}
+		if (nm.nNodes() != 3 || !nm.getNodeName(2).equals("d") || nm.nConnections() != 2
+			|| nm.getConnectionNode1Id(1) != nm.getNodeId(2) || nm.getConnectionNode2Id(1) != a)
+		{
+			System.out.println("Failed: reload did not match the changed file");
+			result = false;
+		}
+		
+		//Steps recorded before a reload cannot be undone after it
+		nm = new NetworkModel(f.getPath());
+		nm.newNode(new NetworkNode("x", 9, 9));
+		nm.save();
+		nm.setWatched(true);
+		nm.watcher.apply(NetworkRecords.read(changed.getPath()));
+		nm.setWatched(false);
+		if (nm.canUndo() || nm.canRedo())
+		{
+			System.out.println("Failed: undo steps were kept across a reload");
+			result = false;
+		}
+		if (nm.nNodes() != 3 || nm.getNodeIdNamed("x") >= 0)
+		{
+			System.out.println("Failed: reload did not remove the saved node");
+			result = false;
+		}
+		
+		//A change made while the model is being saved is applied once the save is over
+		final NetworkModel watched = new NetworkModel(f.getPath());
+		final NetworkSnapshot saving = watched.beginSave();
+		final boolean[] reloaded = new boolean[1];
+		watched.setWatched(true);
+		try {
+			Scanner contents = new Scanner(changed, "UTF-8").useDelimiter("\\A");
+			writer = new PrintWriter(f, "UTF-8");
+			writer.print(contents.next());
+			writer.close();
+			contents.close();
+			Thread.sleep(NetworkFileWatcher.SETTLE_MILLIS*5);
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run()
+				{
+					reloaded[0] = watched.nNodes() == 3;
+					watched.endSave(saving, false);
+				}
+			});
+			if (reloaded[0])
+			{
+				System.out.println("Failed: change was applied during a save");
+				result = false;
+			}
+			for (int i=0; i<100 && !reloaded[0]; i++)
+			{
+				Thread.sleep(NetworkFileWatcher.RETRY_MILLIS);
+				SwingUtilities.invokeAndWait(new Runnable() {
+					public void run()
+					{
+						reloaded[0] = watched.nNodes() == 3 && watched.getNodeName(2).equals("d");
+					}
+				});
+			}
+		} catch (InterruptedException | InvocationTargetException e) {
+			e.printStackTrace();
+		}
+		watched.setWatched(false);
+		if (!reloaded[0])
+		{
+			System.out.println("Failed: change made during a save was not applied after it");
+			result = false;
+		}
+		
+		return result;
+	}
+	
+	private static boolean testBatch() throws IOException
+	{
+		boolean result = true;
+		final NetworkModel nm1 = new NetworkModel();
+		final int[] notifications = new int[1];
+		nm1.addNetworkListener(new NetworkListener() {
+			public void nodeChanged(NetworkChangeEvent e) { notifications[0]++; }
+			public void connectionChanged(NetworkChangeEvent e) { notifications[0]++; }
+			public void transformChanged() { notifications[0]++; }
+			public void networkChanged() { notifications[0]++; }
+		});
+		nm1.batch(new Runnable() {
+			public void run()
+			{
+				for (int i=0; i<100; i++)
+					nm1.newNode(new NetworkNode("n"+i, i, i));
+				for (int i=1; i<100; i++)
+					nm1.addConnection(new NetworkConnection("n"+(i-1), Side.R, "n"+i, Side.L));
+			}
+		});
+		if (notifications[0] != 1 || nm1.nNodes() != 100 || nm1.nConnections() != 99)
+		{
+			System.out.println("Failed: batch should notify listeners once");
+			result = false;
+		}
+		nm1.undo();
+		if (notifications[0] != 2 || nm1.nNodes() != 0 || nm1.nConnections() != 0 || nm1.canUndo())
+		{
+			System.out.println("Failed: undo of a batch");
+			result = false;
+		}
+		nm1.redo();
+		if (nm1.nNodes() != 100 || nm1.nConnections() != 99)
+		{
+			System.out.println("Failed: redo of a batch");
+			result = false;
+		}
+		return result;
+	}
 }
 
 
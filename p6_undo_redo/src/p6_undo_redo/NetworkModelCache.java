@@ -0,0 +1,326 @@
+package p6_undo_redo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the models read from large text files in the binary format, so that
+ * reopening an unchanged file reads the compact copy instead of parsing the text.
+ *
+ * Each entry is a file in the cache directory named after a hash of the absolute
+ * path of the file it was read from.  It starts with
+ * 		the magic bytes "NETC" and a version byte
+ * 		that path, as a length and UTF-8 bytes
+ * 		the size, last modified time and CRC-32 of the file when it was read
+ * followed by the model in NetworkBinaryFormat.  An entry is only used while the
+ * file still has the same size, time and checksum.  Checking the checksum reads
+ * the whole file, which is still much quicker than parsing it.  Entries are
+ * touched when they are used, and the least recently used are deleted once the
+ * directory grows past its size limit.
+ *
+ * Only the file itself is cached.  Its journal, if it has one, is replayed on top
+ * of the cached model as it would be on top of the parsed one.
+ */
+class NetworkModelCache
+{
+	/**
+	 * Text files smaller than this parse about as fast as their cache entry reads
+	 */
+	static final long MIN_FILE_SIZE = 1 << 20;
+
+	static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".network-cache");
+	static final long DEFAULT_MAX_SIZE = 512L << 20;
+
+	private static final byte[] MAGIC = {'N', 'E', 'T', 'C'};
+	private static final int VERSION = 3;
+	private static final String EXTENSION = ".cache";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static File directory = DEFAULT_DIRECTORY;
+	private static long maxSize = DEFAULT_MAX_SIZE;
+	private static long minFileSize = MIN_FILE_SIZE;
+
+	/**
+	 * Sets where entries are kept.  A null directory turns the cache off.
+	 */
+	static synchronized void setDirectory(File dir)
+	{
+		directory = dir;
+	}
+
+	/**
+	 * @return where entries are kept, or null if the cache is off
+	 */
+	static synchronized File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Sets the total size entries may take up before the least recently used are deleted
+	 */
+	static synchronized void setMaxSize(long bytes)
+	{
+		maxSize = bytes;
+	}
+
+	/**
+	 * Sets the size below which text files are not cached
+	 */
+	static synchronized void setMinFileSize(long bytes)
+	{
+		minFileSize = bytes;
+	}
+
+	/**
+	 * @return a stream over the model cached for fileName, in NetworkBinaryFormat,
+	 * 	or null if there is no entry that still matches the file
+	 */
+	static InputStream open(String fileName)
+	{
+		File entry = entryFor(fileName);
+		if (entry == null || !entry.isFile())
+			return null;
+		try {
+			MappedByteBuffer buf;
+			RandomAccessFile in = new RandomAccessFile(entry, "r");
+			try {
+				buf = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			} finally {
+				in.close();
+			}
+			File file = new File(fileName);
+			if (!readHeader(buf, fileName, file.length(), file.lastModified()) || buf.getLong() != checksum(file))
+				return null;
+			entry.setLastModified(System.currentTimeMillis());
+			return new ByteBufferInputStream(buf.slice());
+		} catch (IOException | RuntimeException e) {
+			//A damaged or half written entry is treated as missing and later replaced
+			return null;
+		}
+	}
+
+	/**
+	 * Called once model has been read from fileName, before anything else has
+	 * changed it.  If fileName should be cached and is not, an entry is written
+	 * for it on another thread.
+	 * @return the thread writing the entry, or null if none is needed
+	 */
+	static Thread loaded(NetworkModel model, String fileName)
+	{
+		final File entry = entryFor(fileName);
+		final File file = new File(fileName);
+		final long size = file.length();
+		final long modified = file.lastModified();
+		if (entry == null || size < minFileSize || isCurrent(entry, fileName, size, modified))
+			return null;
+		try {
+			if (NetworkBinaryFormat.isBinary(fileName))
+				return null;
+		} catch (IOException e) {
+			return null;
+		}
+
+		final NetworkSnapshot snapshot = model.snapshot(fileName);
+		Thread writer = new Thread("network cache writer") {
+			@Override
+			public void run()
+			{
+				try {
+					store(entry, snapshot, file, size, modified);
+				} catch (IOException e) {
+					entry.delete();
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		return writer;
+	}
+
+	private static void store(File entry, NetworkSnapshot snapshot, File file, long size, long modified) throws IOException
+	{
+		long crc = checksum(file);
+		if (file.length() != size || file.lastModified() != modified)
+			return; //changed while it was being checksummed
+
+		File dir = entry.getParentFile();
+		dir.mkdirs();
+		File temp = File.createTempFile("entry", ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				out.write(MAGIC);
+				out.write(VERSION);
+				byte[] path = pathOf(file.getPath()).getBytes(UTF8);
+				out.writeInt(path.length);
+				out.write(path);
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeLong(crc);
+				NetworkBinaryFormat.write(snapshot, out);
+			} finally {
+				out.close();
+			}
+			entry.delete();
+			if (!temp.renameTo(entry))
+				throw new IOException("could not move "+temp+" to "+entry);
+		} finally {
+			temp.delete();
+		}
+		evict(dir, entry);
+	}
+
+	/**
+	 * Deletes the least recently used entries other than keep until the directory
+	 * is no bigger than maxSize
+	 */
+	private static void evict(File dir, File keep)
+	{
+		File[] entries = dir.listFiles();
+		if (entries == null)
+			return;
+		long total = 0;
+		for (File f : entries)
+			total += f.length();
+		long limit;
+		synchronized (NetworkModelCache.class)
+		{
+			limit = maxSize;
+		}
+		if (total <= limit)
+			return;
+
+		final long[] used = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for (int i=0; i<entries.length; i++)
+		{
+			used[i] = entries[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Long.compare(used[a], used[b]);
+			}
+		});
+		for (int i=0; i<order.length && total > limit; i++)
+		{
+			File f = entries[order[i]];
+			if (f.equals(keep) || !f.getName().endsWith(EXTENSION))
+				continue;
+			long length = f.length();
+			if (f.delete())
+				total -= length;
+		}
+	}
+
+	/**
+	 * @return true if entry was written for fileName as it has this size and time
+	 */
+	private static boolean isCurrent(File entry, String fileName, long size, long modified)
+	{
+		if (!entry.isFile())
+			return false;
+		try {
+			RandomAccessFile in = new RandomAccessFile(entry, "r");
+			try {
+				int length = (int) Math.min(in.length(), 4096);
+				ByteBuffer buf = ByteBuffer.allocate(length);
+				in.getChannel().read(buf, 0);
+				buf.flip();
+				return readHeader(buf, fileName, size, modified);
+			} finally {
+				in.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads an entry's header up to its checksum
+	 * @return true if it was written for the path of fileName with this size and time
+	 */
+	private static boolean readHeader(ByteBuffer buf, String fileName, long size, long modified)
+	{
+		for (int i=0; i<MAGIC.length; i++)
+		{
+			if (buf.get() != MAGIC[i])
+				return false;
+		}
+		if (buf.get() != VERSION)
+			return false;
+		byte[] path = new byte[buf.getInt()];
+		buf.get(path);
+		return new String(path, UTF8).equals(pathOf(fileName)) && buf.getLong() == size && buf.getLong() == modified;
+	}
+
+	/**
+	 * @return the CRC-32 of the whole of file.  The size and time catch most
+	 * 	changes; this catches a file rewritten at the same size within the
+	 * 	resolution of the time, wherever the change is.
+	 */
+	private static long checksum(File file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] block = new byte[1 << 16];
+			int n;
+			while ((n = in.read(block)) > 0)
+				crc.update(block, 0, n);
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the absolute path of fileName without "." or ".." names, so that
+	 * 	every path to a file finds the same entry
+	 */
+	private static String pathOf(String fileName)
+	{
+		return new File(fileName).toPath().toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * @return the entry for fileName, or null if the cache is off
+	 */
+	private static File entryFor(String fileName)
+	{
+		File dir;
+		synchronized (NetworkModelCache.class)
+		{
+			dir = directory;
+		}
+		if (dir == null)
+			return null;
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(pathOf(fileName).getBytes(UTF8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash)
+				name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			return new File(dir, name.append(EXTENSION).toString());
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+}
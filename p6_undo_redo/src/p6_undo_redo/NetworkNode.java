@@ -2,6 +2,10 @@ package p6_undo_redo;
 
 /**
 * Objects of this class describe a single node in a network.
+* 
+* Once a node has been added to a NetworkModel its name and location live in the
+* model's node store, and this object reads and writes through to it.  The fields
+* below only hold the node's state while it is not part of a model.
 **/
 public class NetworkNode 
 {
@@ -9,6 +13,8 @@ public class NetworkNode
 	private double xCenter;
 	private double yCenter;
 	private NetworkModel networkModel;
+	private NodeStore store;
+	private int id = -1;
 	
 	/**
 	* Creates a network node
@@ -23,11 +29,23 @@ public class NetworkNode
 		setLocation(xCenter, yCenter);
 	}
 	
+	/**
+	* Creates a view of a node that is already in store
+	*/
+	NetworkNode(NetworkModel network, NodeStore store, int id)
+	{
+		this.networkModel = network;
+		this.store = store;
+		this.id = id;
+	}
+	
 	/**
 	* @return name of the node
 	*/
 	public String getName()
 	{
+		if (this.store != null)
+			return store.getName(store.positionOf(id));
 		return this.nodeName;
 	}
 
@@ -37,17 +55,13 @@ public class NetworkNode
 	*/
 	public void setName(String newName)
 	{
-		if (this.networkModel != null)
+		if (this.store != null)
 		{
-			for (int i=0; i<networkModel.nConnections(); i++)
-			{
-				NetworkConnection c = networkModel.getConnection(i);
-				if (c.getNode1().compareTo(nodeName)==0)
-					c.setNode1(newName);
-				if (c.getNode2().compareTo(nodeName)==0)
-					c.setNode2(newName);
-			}
-			this.nodeName = newName;
+			int pos = store.positionOf(id);
+			String oldName = store.getName(pos);
+			store.setName(pos, newName);
+			if (this.networkModel != null)
+				networkModel.nodeRenamed(this, oldName);
 		}
 		else
 			this.nodeName = newName;
@@ -58,6 +72,8 @@ public class NetworkNode
 	*/
 	public double getX()
 	{
+		if (this.store != null)
+			return store.getX(store.positionOf(id));
 		return this.xCenter;
 	}
 	
@@ -66,6 +82,8 @@ public class NetworkNode
 	*/
 	public double getY()
 	{
+		if (this.store != null)
+			return store.getY(store.positionOf(id));
 		return this.yCenter;
 	}
 	
@@ -74,8 +92,20 @@ public class NetworkNode
 	*/
 	public void setLocation(double xCenter, double yCenter)
 	{
-		this.xCenter = xCenter;
-		this.yCenter = yCenter;
+		if (this.store != null)
+		{
+			int pos = store.positionOf(id);
+			double oldX = store.getX(pos);
+			double oldY = store.getY(pos);
+			store.setLocation(pos, xCenter, yCenter);
+			if (this.networkModel != null)
+				networkModel.nodeMoved(this, oldX, oldY);
+		}
+		else
+		{
+			this.xCenter = xCenter;
+			this.yCenter = yCenter;
+		}
 	}
 
 	/**
@@ -94,12 +124,68 @@ public class NetworkNode
 	{
 		return this.networkModel;
 	}
+	
+	/**
+	* @return the id this node was given when it was added to its network,
+	*	or -1 if it has never been added to one.  The id stays the same
+	*	when the node is renamed or other nodes are removed.
+	*/
+	public int getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	* Moves this node's state into store, where it has the given id
+	*/
+	void attach(NodeStore store, int id)
+	{
+		this.store = store;
+		this.id = id;
+	}
+	
+	/**
+	* Takes back the node's state when it is removed from its store.
+	* The id is kept so that adding the node back restores it.
+	*/
+	void detach(String name, double x, double y)
+	{
+		this.nodeName = name;
+		this.xCenter = x;
+		this.yCenter = y;
+		this.store = null;
+	}
+	
+	/**
+	* @return true if this node's state lives in store
+	*/
+	boolean isIn(NodeStore store)
+	{
+		return this.store != null && this.store == store;
+	}
 
 	/**
 	 * @return "N x y name"
 	 */
 	public String toString()
 	{
-		return "N "+String.valueOf(xCenter)+" "+String.valueOf(yCenter)+" \""+nodeName+"\"";
+		return format(getName(), getX(), getY());
+	}
+	
+	/**
+	 * @return the "N x y name" line for a node with these values
+	 */
+	static String format(String name, double x, double y)
+	{
+		return format(new StringBuilder(), name, x, y).toString();
+	}
+	
+	/**
+	 * Appends the "N x y name" line for a node with these values to sb
+	 * @return sb
+	 */
+	static StringBuilder format(StringBuilder sb, String name, double x, double y)
+	{
+		return sb.append("N ").append(x).append(' ').append(y).append(" \"").append(name).append('"');
 	}
 }
@@ -0,0 +1,165 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Node and connection records read from a file but not yet added to a model,
+ * kept in columns.  Nodes are added before connections, which gives the same
+ * model as adding the records in file order: either way a connection ends up
+ * bound to the first node with the name it refers to.
+ */
+class NetworkRecords implements NetworkFileParser.RecordHandler
+{
+	private int nNodes;
+	private String[] nodeNames = new String[256];
+	private double[] xs = new double[256];
+	private double[] ys = new double[256];
+
+	private int nConnections;
+	private String[] names1 = new String[256];
+	private String[] names2 = new String[256];
+	private byte[] sides = new byte[256];
+	private int[] ids1;
+	private int[] ids2;
+
+	@Override
+	public void node(String name, double x, double y)
+	{
+		if (this.nNodes == this.nodeNames.length)
+		{
+			int length = this.nNodes*2;
+			this.nodeNames = Arrays.copyOf(this.nodeNames, length);
+			this.xs = Arrays.copyOf(this.xs, length);
+			this.ys = Arrays.copyOf(this.ys, length);
+		}
+		this.nodeNames[this.nNodes] = name;
+		this.xs[this.nNodes] = x;
+		this.ys[this.nNodes] = y;
+		this.nNodes++;
+	}
+
+	@Override
+	public void connection(String node1, Side side1, String node2, Side side2)
+	{
+		if (this.nConnections == this.names1.length)
+		{
+			int length = this.nConnections*2;
+			this.names1 = Arrays.copyOf(this.names1, length);
+			this.names2 = Arrays.copyOf(this.names2, length);
+			this.sides = Arrays.copyOf(this.sides, length);
+		}
+		this.names1[this.nConnections] = node1;
+		this.names2[this.nConnections] = node2;
+		this.sides[this.nConnections] = ConnectionStore.packSides(side1, side2);
+		this.nConnections++;
+	}
+
+	/**
+	 * Reads the whole of a network file, in any of the formats a model reads
+	 */
+	static NetworkRecords read(String fileName) throws IOException
+	{
+		NetworkRecords records = new NetworkRecords();
+		NetworkFormats.read(fileName, records);
+		return records;
+	}
+
+	/**
+	 * @return the number of records held
+	 */
+	int size()
+	{
+		return this.nNodes+this.nConnections;
+	}
+
+	int nNodes()
+	{
+		return this.nNodes;
+	}
+
+	String getNodeName(int i)
+	{
+		return this.nodeNames[i];
+	}
+
+	double getNodeX(int i)
+	{
+		return this.xs[i];
+	}
+
+	double getNodeY(int i)
+	{
+		return this.ys[i];
+	}
+
+	int nConnections()
+	{
+		return this.nConnections;
+	}
+
+	String getConnectionNode1(int i)
+	{
+		return this.names1[i];
+	}
+
+	String getConnectionNode2(int i)
+	{
+		return this.names2[i];
+	}
+
+	Side getConnectionSide1(int i)
+	{
+		return ConnectionStore.unpackSide1(this.sides[i]);
+	}
+
+	Side getConnectionSide2(int i)
+	{
+		return ConnectionStore.unpackSide2(this.sides[i]);
+	}
+
+	void appendTo(NetworkModel model)
+	{
+		appendNodes(model);
+		appendConnections(model);
+	}
+
+	void appendNodes(NetworkModel model)
+	{
+		for (int i=0; i<this.nNodes; i++)
+			model.appendNode(this.nodeNames[i], this.xs[i], this.ys[i]);
+		this.nodeNames = null;
+		this.xs = null;
+		this.ys = null;
+	}
+
+	/**
+	 * Looks up the node ids of every connection ahead of appendConnections.  Only
+	 * reads the model, so several sets of records can do this at once.
+	 */
+	void resolveConnections(NetworkModel model)
+	{
+		this.ids1 = new int[this.nConnections];
+		this.ids2 = new int[this.nConnections];
+		for (int i=0; i<this.nConnections; i++)
+		{
+			this.ids1[i] = model.getNodeIdNamed(this.names1[i]);
+			this.ids2[i] = model.getNodeIdNamed(this.names2[i]);
+		}
+	}
+
+	void appendConnections(NetworkModel model)
+	{
+		for (int i=0; i<this.nConnections; i++)
+		{
+			Side s1 = ConnectionStore.unpackSide1(this.sides[i]);
+			Side s2 = ConnectionStore.unpackSide2(this.sides[i]);
+			if (this.ids1 == null || this.ids1[i] < 0 || this.ids2[i] < 0)
+				model.appendConnection(this.names1[i], s1, this.names2[i], s2);
+			else
+				model.appendConnection(this.ids1[i], s1, this.ids2[i], s2);
+		}
+	}
+}
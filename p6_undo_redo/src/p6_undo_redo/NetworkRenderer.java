@@ -0,0 +1,1082 @@
+package p6_undo_redo;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.geom.CubicCurve2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * Lays out and draws the nodes and connections of a model, in model coordinates.
+ *
+ * Only uses Graphics2D and FontMetrics, never a component, so a network can be
+ * drawn into an image without a display as well as by a NetworkView.
+ *
+ * Also keeps a Quadtree of where each node and connection is drawn, so that
+ * what lies under a point can be found without looking at every node and
+ * connection.  The index is built when first needed and then kept up to date by
+ * passing it the model's change events; after a batch of changes it is rebuilt,
+ * unless the batch only appended to the model.
+ * Given the area being painted, the draw methods use it to skip, or cull, what
+ * lies outside, and count how much they drew and culled.
+ *
+ * The size of each node and the points its connections attach to are measured
+ * once and kept by node id until the node is renamed, moved, added or removed,
+ * or the font changes, so that drawing and hit-testing do not measure names
+ * over and over.  Likewise the curve of each connection, its coefficients and
+ * its bounds are kept by connection id until the connection or a node at either
+ * end changes.
+ *
+ * While a node is dragged, drawStill and drawDragged draw what stays still and
+ * what moves separately, so that the first can be drawn once and kept.
+ */
+class NetworkRenderer
+{
+	static final Font FONT = new Font("Helvetica",Font.PLAIN,15);
+
+	private NetworkModel networkModel;
+	private Font font;
+	private FontMetrics FM;
+
+	//The node drawn at curNodePosition instead of where the model has it
+	private int curNode = -1;
+	private Point2D curNodePosition;
+
+	//The bounds of nodes and connections by id, where the model has them, or null
+	//until they are needed
+	private Quadtree nodeIndex;
+	private Quadtree connectionIndex;
+	//How many nodes and connections the model had when the index was last brought
+	//up to date as a whole
+	private int indexedNodes;
+	private int indexedConnections;
+
+	//The measurements of nodes by id, where the model has them: the width of the
+	//name, the width and height of the oval, and the x and y of the connection
+	//point on each side, in Side order.  Only entries marked measured hold values.
+	private boolean[] measured = new boolean[0];
+	private int[] textWidths = new int[0];
+	private int[] ovalWidths = new int[0];
+	private int[] ovalHeights = new int[0];
+	private double[] anchors = new double[0];
+
+	//Turns the end and control points of a cubic Bezier curve into the
+	//coefficients of t^3, t^2, t and 1
+	private static final double[][] BEZIER_MATRIX = {{-1,  3, -3, 1},
+													 { 3, -6,  3, 0},
+													 {-3,  3,  0, 0},
+													 { 1,  0,  0, 0}};
+
+	//The shapes of connections by id, where the model has their ends: the curve,
+	//the coefficients of its x and y and its bounds.  Null where not worked out.
+	private CubicCurve2D[] curves = new CubicCurve2D[0];
+	private double[][][] coefficients = new double[0][][];
+	private Rectangle2D[] curveBounds = new Rectangle2D[0];
+
+	//What the last draw methods called drew and culled
+	private int nodesDrawn;
+	private int nodesCulled;
+	private int connectionsDrawn;
+	private int connectionsCulled;
+
+	/**
+	 * @param FM the metrics of font on the graphics to be drawn on
+	 */
+	NetworkRenderer(NetworkModel networkModel, Font font, FontMetrics FM)
+	{
+		this.networkModel = networkModel;
+		this.font = font;
+		this.FM = FM;
+	}
+
+	void setNetworkModel(NetworkModel networkModel)
+	{
+		this.networkModel = networkModel;
+		invalidate();
+	}
+
+	/**
+	 * @param FM the metrics of font on the graphics to be drawn on
+	 */
+	void setFont(Font font, FontMetrics FM)
+	{
+		this.font = font;
+		this.FM = FM;
+		invalidate();
+	}
+
+	Font getFont()
+	{
+		return this.font;
+	}
+
+	FontMetrics getFontMetrics()
+	{
+		return this.FM;
+	}
+
+	/**
+	 * Draws node i at position, until set otherwise
+	 * @param position null to draw every node where the model has it
+	 */
+	void setDragged(int i, Point2D position)
+	{
+		this.curNode = i;
+		this.curNodePosition = position;
+	}
+
+	/**
+	 * Draws the whole network with nothing selected
+	 */
+	void paint(Graphics2D g)
+	{
+		g.setFont(this.font);
+		drawConnections(g, null, -1);
+		drawNodes(g, null, -1, -1);
+	}
+
+	int getNodesDrawn()
+	{
+		return this.nodesDrawn;
+	}
+
+	int getNodesCulled()
+	{
+		return this.nodesCulled;
+	}
+
+	int getConnectionsDrawn()
+	{
+		return this.connectionsDrawn;
+	}
+
+	int getConnectionsCulled()
+	{
+		return this.connectionsCulled;
+	}
+
+	int getNodeWidth(int textWidth)
+	{
+		return textWidth+10;
+	}
+
+	int getNodeHeight(int ovalWidth)
+	{
+		int textHeight = this.FM.getHeight();
+		return (ovalWidth/4 > textHeight+textHeight/2) ? ovalWidth/4 : textHeight+textHeight/2;
+	}
+
+	/**
+	 * @return the x coordinate node i is drawn at
+	 */
+	double getNodeX(int i)
+	{
+		return (this.curNodePosition != null && i == this.curNode) ? this.curNodePosition.getX() : this.networkModel.getNodeX(i);
+	}
+
+	/**
+	 * @return the y coordinate node i is drawn at
+	 */
+	double getNodeY(int i)
+	{
+		return (this.curNodePosition != null && i == this.curNode) ? this.curNodePosition.getY() : this.networkModel.getNodeY(i);
+	}
+
+	/**
+	 * @param i : the index of the network node being connected to
+	 * @param s : the side of the node to connect to
+	 * @return : the connection point in model coordinates
+	 */
+	Point2D getConnectionPoint(int i, Side s)
+	{
+		int id = measure(i);
+		Point2D p = new Point();
+		if (i == getDraggedNode())
+			p.setLocation(anchorX(this.curNodePosition.getX(), this.ovalWidths[id], s), anchorY(this.curNodePosition.getY(), this.ovalHeights[id], s));
+		else
+			p.setLocation(this.anchors[id*8+s.ordinal()*2], this.anchors[id*8+s.ordinal()*2+1]);
+		return p;
+	}
+
+	/**
+	 * @return the connection point on side s of a node called name centered at (x,y),
+	 * 	in model coordinates
+	 */
+	Point2D getConnectionPoint(String name, double x, double y, Side s)
+	{
+		Point2D p = new Point();
+		int nodeWidth = getNodeWidth(this.FM.stringWidth(name));
+		int nodeHeight = getNodeHeight(nodeWidth);
+		p.setLocation(anchorX(x, nodeWidth, s), anchorY(y, nodeHeight, s));
+		return p;
+	}
+
+	private static double anchorX(double x, int nodeWidth, Side s)
+	{
+		switch (s)
+		{
+		case L:
+			return x-(nodeWidth/2);
+		case R:
+			return x+(nodeWidth/2);
+		default:
+			return x;
+		}
+	}
+
+	private static double anchorY(double y, int nodeHeight, Side s)
+	{
+		switch (s)
+		{
+		case T:
+			return y-(nodeHeight/2);
+		case B:
+			return y+(nodeHeight/2);
+		default:
+			return y;
+		}
+	}
+
+	/**
+	 * @return the width of node i's name
+	 */
+	int getNodeTextWidth(int i)
+	{
+		int id = measure(i);
+		return this.textWidths[id];
+	}
+
+	/**
+	 * @return the width of node i's oval
+	 */
+	int getNodeOvalWidth(int i)
+	{
+		int id = measure(i);
+		return this.ovalWidths[id];
+	}
+
+	/**
+	 * @return the height of node i's oval
+	 */
+	int getNodeOvalHeight(int i)
+	{
+		int id = measure(i);
+		return this.ovalHeights[id];
+	}
+
+	/**
+	 * Measures node i, unless it already has been
+	 * @return the node's id, where its measurements are kept
+	 */
+	private int measure(int i)
+	{
+		int id = this.networkModel.getNodeId(i);
+		if (id >= this.measured.length)
+		{
+			int length = Math.max(id+1, this.measured.length*2);
+			this.measured = Arrays.copyOf(this.measured, length);
+			this.textWidths = Arrays.copyOf(this.textWidths, length);
+			this.ovalWidths = Arrays.copyOf(this.ovalWidths, length);
+			this.ovalHeights = Arrays.copyOf(this.ovalHeights, length);
+			this.anchors = Arrays.copyOf(this.anchors, length*8);
+		}
+		if (this.measured[id])
+			return id;
+
+		int textWidth = this.FM.stringWidth(this.networkModel.getNodeName(i));
+		int ovalWidth = getNodeWidth(textWidth);
+		int ovalHeight = getNodeHeight(ovalWidth);
+		this.textWidths[id] = textWidth;
+		this.ovalWidths[id] = ovalWidth;
+		this.ovalHeights[id] = ovalHeight;
+		double x = this.networkModel.getNodeX(i);
+		double y = this.networkModel.getNodeY(i);
+		Point2D p = new Point();
+		for (Side s : Side.values())
+		{
+			//Rounded as the points handed out are
+			p.setLocation(anchorX(x, ovalWidth, s), anchorY(y, ovalHeight, s));
+			this.anchors[id*8+s.ordinal()*2] = p.getX();
+			this.anchors[id*8+s.ordinal()*2+1] = p.getY();
+		}
+		this.measured[id] = true;
+		return id;
+	}
+
+	/**
+	 * @return the bounds, in model coordinates, of a node called name centered at (x,y)
+	 */
+	Rectangle2D getNodeBounds(String name, double x, double y)
+	{
+		int nodeWidth = getNodeWidth(this.FM.stringWidth(name));
+		int nodeHeight = getNodeHeight(nodeWidth);
+		return new Rectangle2D.Double(x-nodeWidth/2, y-nodeHeight/2, nodeWidth, nodeHeight);
+	}
+
+	/**
+	 * @return the bounds, in model coordinates, of everything drawn, or null if
+	 * 	nothing is
+	 */
+	Rectangle2D getBounds()
+	{
+		Rectangle2D r = null;
+		for (int i=0; i<this.networkModel.nNodes(); i++)
+		{
+			int nodeWidth = getNodeOvalWidth(i);
+			int nodeHeight = getNodeOvalHeight(i);
+			r = union(r, new Rectangle2D.Double(getNodeX(i)-nodeWidth/2, getNodeY(i)-nodeHeight/2, nodeWidth, nodeHeight));
+		}
+		for (int i=0; i<this.networkModel.nConnections(); i++)
+		{
+			CubicCurve2D curve = getConnectionCurve(i);
+			if (curve != null)
+				r = union(r, curve.getBounds2D());
+		}
+		return r;
+	}
+
+	/**
+	 * @return the bounds, in model coordinates, of everything that picks out node i
+	 * 	where the model has it: its outline and its text
+	 */
+	private Rectangle2D getNodeHitBounds(int i)
+	{
+		double x = this.networkModel.getNodeX(i);
+		double y = this.networkModel.getNodeY(i);
+		int nodeWidth = getNodeOvalWidth(i);
+		int nodeHeight = getNodeOvalHeight(i);
+		Rectangle2D r = new Rectangle2D.Double(x-nodeWidth/2, y-nodeHeight/2, nodeWidth, nodeHeight);
+		int textWidth = getNodeTextWidth(i);
+		double textBase = y+(this.FM.getHeight()/4);
+		r.add(new Rectangle2D.Double(x-textWidth/2, textBase-this.FM.getAscent(), textWidth, this.FM.getAscent()+this.FM.getDescent()));
+		//Allow for coordinates being rounded to whole pixels
+		r.setRect(r.getX()-1, r.getY()-1, r.getWidth()+2, r.getHeight()+2);
+		return r;
+	}
+
+	static Rectangle2D union(Rectangle2D r, Rectangle2D add)
+	{
+		if (r == null)
+			return add;
+		if (add != null)
+			r.add(add);
+		return r;
+	}
+
+	Point2D calculateCurveControlPoint(Point2D p1, Side s, double distance)
+	{
+		Point2D c = new Point();
+		double x = p1.getX();
+		double y = p1.getY();
+
+		distance = (distance > 100) ? 100 : distance;
+
+		switch (s)
+		{
+		case B:
+			y += distance;
+			break;
+		case T:
+			y -= distance;
+			break;
+		case R:
+			x += distance;
+			break;
+		case L:
+			x -= distance;
+			break;
+		}
+
+		c.setLocation(x, y);
+		return c;
+	}
+
+	/**
+	 * @return the curve drawn for a connection from p1 on side s1 to p2 on side s2
+	 */
+	CubicCurve2D getConnectionCurve(Point2D p1, Side s1, Point2D p2, Side s2)
+	{
+		double distance = Math.sqrt(pointDistance(p1, p2));
+		Point2D c1 = calculateCurveControlPoint(p1, s1, distance);
+		Point2D c2 = calculateCurveControlPoint(p2, s2, distance);
+		return new CubicCurve2D.Double(p1.getX(), p1.getY(),
+									   c1.getX(), c1.getY(),
+									   c2.getX(), c2.getY(),
+									   p2.getX(), p2.getY());
+	}
+
+	/**
+	 * @return the curve drawn for connection i, or null if either end is not drawn.
+	 * 	The curve may be kept for later calls, so must not be changed.
+	 */
+	CubicCurve2D getConnectionCurve(int i)
+	{
+		int id = shape(i);
+		if (id < 0)
+			return null;
+		if (!isDragged(i))
+			return this.curves[id];
+		Side s1 = this.networkModel.getConnectionSide1(i);
+		Side s2 = this.networkModel.getConnectionSide2(i);
+		int n1 = this.networkModel.getNodeIndexById(this.networkModel.getConnectionNode1Id(i));
+		int n2 = this.networkModel.getNodeIndexById(this.networkModel.getConnectionNode2Id(i));
+		return getConnectionCurve(getConnectionPoint(n1, s1), s1, getConnectionPoint(n2, s2), s2);
+	}
+
+	/**
+	 * @return the coefficients of t^3, t^2, t and 1 in the x, then the y, of the curve
+	 * 	drawn for connection i, or null if either end is not drawn.  They may be kept
+	 * 	for later calls, so must not be changed.
+	 */
+	double[][] getConnectionCoefficients(int i)
+	{
+		int id = shape(i);
+		if (id < 0)
+			return null;
+		if (!isDragged(i))
+			return this.coefficients[id];
+		return computeCoefficients(getConnectionCurve(i));
+	}
+
+	static double[][] computeCoefficients(CubicCurve2D curve)
+	{
+		double[][] geo = { {curve.getX1(), curve.getCtrlX1(), curve.getCtrlX2(), curve.getX2()},
+						   {curve.getY1(), curve.getCtrlY1(), curve.getCtrlY2(), curve.getY2()} };
+		double[][] coef = new double[2][4];
+		for (int i=0; i<2; i++)
+			for (int j=0; j<4; j++)
+				for (int k=0; k<4; k++)
+					coef[i][j] += geo[i][k] * BEZIER_MATRIX[k][j];
+		return coef;
+	}
+
+	/**
+	 * @return true if connection i is attached to the node being dragged, and so is
+	 * 	drawn away from where the model has it
+	 */
+	private boolean isDragged(int i)
+	{
+		int dragged = getDraggedNode();
+		if (dragged < 0)
+			return false;
+		int id = this.networkModel.getNodeId(dragged);
+		return this.networkModel.getConnectionNode1Id(i) == id || this.networkModel.getConnectionNode2Id(i) == id;
+	}
+
+	/**
+	 * Works out the shape of connection i where the model has its ends, unless it
+	 * already has been
+	 * @return the connection's id, where its shape is kept, or -1 if either end is
+	 * 	not drawn
+	 */
+	private int shape(int i)
+	{
+		int n1 = this.networkModel.getNodeIndexById(this.networkModel.getConnectionNode1Id(i));
+		int n2 = this.networkModel.getNodeIndexById(this.networkModel.getConnectionNode2Id(i));
+		if (n1 < 0 || n2 < 0)
+			return -1;
+		int id = this.networkModel.getConnectionId(i);
+		if (id >= this.curves.length)
+		{
+			int length = Math.max(id+1, this.curves.length*2);
+			this.curves = Arrays.copyOf(this.curves, length);
+			this.coefficients = Arrays.copyOf(this.coefficients, length);
+			this.curveBounds = Arrays.copyOf(this.curveBounds, length);
+		}
+		if (this.curves[id] != null)
+			return id;
+
+		Side s1 = this.networkModel.getConnectionSide1(i);
+		Side s2 = this.networkModel.getConnectionSide2(i);
+		Point2D p1 = new Point();
+		Point2D p2 = new Point();
+		int id1 = measure(n1);
+		int id2 = measure(n2);
+		p1.setLocation(this.anchors[id1*8+s1.ordinal()*2], this.anchors[id1*8+s1.ordinal()*2+1]);
+		p2.setLocation(this.anchors[id2*8+s2.ordinal()*2], this.anchors[id2*8+s2.ordinal()*2+1]);
+		CubicCurve2D curve = getConnectionCurve(p1, s1, p2, s2);
+		this.curves[id] = curve;
+		this.coefficients[id] = computeCoefficients(curve);
+		this.curveBounds[id] = curve.getBounds2D();
+		return id;
+	}
+
+	/**
+	 * Forgets the shape of the connection with the given id
+	 */
+	private void forgetShape(int id)
+	{
+		if (id < this.curves.length)
+		{
+			this.curves[id] = null;
+			this.coefficients[id] = null;
+			this.curveBounds[id] = null;
+		}
+	}
+
+	/**
+	 * @return The square of the distance between point a and point b
+	 */
+	static double pointDistance(Point2D p1, Point2D b)
+	{
+		double dx = p1.getX() - b.getX();
+		double dy = p1.getY() - b.getY();
+		return dx*dx+dy*dy;
+	}
+
+	/**
+	 * Draws the nodes in the model that lie in area
+	 * @param area the area to draw, in model coordinates, or null for all of it
+	 * @param selected the node to highlight, or -1
+	 * @param charIndex where in the selected node's name to show the insertion point, or -1
+	 */
+	void drawNodes(Graphics2D g, Rectangle2D area, int selected, int charIndex)
+	{
+		int n = this.networkModel.nNodes();
+		if (area == null)
+		{
+			for (int i=0; i<n; i++)
+				drawNode(g, i, selected, charIndex);
+			this.nodesDrawn = n;
+		}
+		else
+		{
+			//In index order, so nodes overlap as they do when all are drawn
+			ArrayList<Integer> visible = getNodesIn(area);
+			for (int i : visible)
+				drawNode(g, i, selected, charIndex);
+			this.nodesDrawn = visible.size();
+		}
+		this.nodesCulled = n-this.nodesDrawn;
+	}
+
+	/**
+	 * Draws what stays still while a node is dragged: every node in area but the
+	 * one being dragged, and every connection in area not attached to it
+	 * @param area the area to draw, in model coordinates, or null for all of it
+	 * @param selected the index of the connection to highlight
+	 */
+	void drawStill(Graphics2D g, Rectangle2D area, int selected)
+	{
+		int dragged = getDraggedNode();
+		int n = this.networkModel.nConnections();
+		this.connectionsDrawn = 0;
+		for (int i : (area == null) ? allIndexes(n) : getConnectionsIn(area))
+		{
+			if (!isDragged(i))
+			{
+				drawConnection(g, i, selected);
+				this.connectionsDrawn++;
+			}
+		}
+		this.connectionsCulled = n-this.connectionsDrawn;
+
+		n = this.networkModel.nNodes();
+		this.nodesDrawn = 0;
+		for (int i : (area == null) ? allIndexes(n) : getNodesIn(area))
+		{
+			if (i != dragged)
+			{
+				drawNode(g, i, -1, -1);
+				this.nodesDrawn++;
+			}
+		}
+		this.nodesCulled = n-this.nodesDrawn;
+	}
+
+	/**
+	 * Draws what moves while a node is dragged: the node, on top of everything
+	 * else, and the connections attached to it
+	 * @param selectedConnection the index of the connection to highlight
+	 */
+	void drawDragged(Graphics2D g, int selectedConnection, int selected, int charIndex)
+	{
+		this.nodesDrawn = 0;
+		this.connectionsDrawn = 0;
+		int dragged = getDraggedNode();
+		if (dragged >= 0)
+		{
+			for (int c : this.networkModel.getConnectionIndexes(this.networkModel.getNodeId(dragged)))
+			{
+				drawConnection(g, c, selectedConnection);
+				this.connectionsDrawn++;
+			}
+			drawNode(g, dragged, selected, charIndex);
+			this.nodesDrawn = 1;
+		}
+		this.nodesCulled = this.networkModel.nNodes()-this.nodesDrawn;
+		this.connectionsCulled = this.networkModel.nConnections()-this.connectionsDrawn;
+	}
+
+	private static ArrayList<Integer> allIndexes(int n)
+	{
+		ArrayList<Integer> result = new ArrayList<Integer>(n);
+		for (int i=0; i<n; i++)
+			result.add(i);
+		return result;
+	}
+
+	private void drawNode(Graphics2D g, int i, int selected, int charIndex)
+	{
+		double x = getNodeX(i);
+		double y = getNodeY(i);
+
+		String text = this.networkModel.getNodeName(i);
+		int id = measure(i);
+		int textWidth = this.textWidths[id];
+		int textHeight = this.FM.getHeight();
+		int textLeft = (int) (x-textWidth/2);
+		int textBase = (int) (y+(textHeight/4));
+
+		int ovalWidth = this.ovalWidths[id];
+		int ovalHeight = this.ovalHeights[id];
+		g.setColor(Color.white);
+		g.fillOval((int)x-ovalWidth/2, (int)y-ovalHeight/2, ovalWidth, ovalHeight);
+
+		//Determine if Node should be highlighted
+		if (i == selected)
+		{
+			g.setColor(Color.red);
+			//Determine char insertion point
+			if (charIndex >= 0)
+				text = text.substring(0, charIndex)+'|'+text.substring(charIndex);
+		}
+		else
+			g.setColor(Color.black);
+
+		g.drawOval((int)x-ovalWidth/2, (int)y-ovalHeight/2, ovalWidth, ovalHeight);
+		g.drawString(text, textLeft, textBase);
+	}
+
+	/**
+	 * Draws the connections in the model that pass through area
+	 * @param area the area to draw, in model coordinates, or null for all of it
+	 * @param selected the connection to highlight, or -1
+	 */
+	void drawConnections(Graphics2D g, Rectangle2D area, int selected)
+	{
+		int n = this.networkModel.nConnections();
+		if (area == null)
+		{
+			for (int i=0; i<n; i++)
+				drawConnection(g, i, selected);
+			this.connectionsDrawn = n;
+		}
+		else
+		{
+			ArrayList<Integer> visible = getConnectionsIn(area);
+			for (int i : visible)
+				drawConnection(g, i, selected);
+			this.connectionsDrawn = visible.size();
+		}
+		this.connectionsCulled = n-this.connectionsDrawn;
+	}
+
+	private void drawConnection(Graphics2D g, int i, int selected)
+	{
+		//Determine if connection should be highlighted
+		if (i == selected)
+			g.setColor(Color.red);
+		else
+			g.setColor(Color.black);
+
+		CubicCurve2D curve = getConnectionCurve(i);
+		if (curve != null)
+			g.draw(curve);
+	}
+
+	/**
+	 * Throws away the measurements of nodes and the index, to be worked out again
+	 * from the whole model when next needed
+	 */
+	void invalidate()
+	{
+		Arrays.fill(this.measured, false);
+		Arrays.fill(this.curves, null);
+		Arrays.fill(this.coefficients, null);
+		Arrays.fill(this.curveBounds, null);
+		this.nodeIndex = null;
+		this.connectionIndex = null;
+	}
+
+	/**
+	 * Indexes the nodes and connections appended to the model since the index was
+	 * built or last brought up to date here, along with the connections that were
+	 * waiting for the appended nodes.  Only right when nothing else in the model
+	 * has changed, as when a file is being loaded.
+	 */
+	void appended()
+	{
+		if (this.nodeIndex == null)
+			return;
+		int nNodes = this.networkModel.nNodes();
+		int nConnections = this.networkModel.nConnections();
+		for (int i=this.indexedNodes; i<nNodes; i++)
+		{
+			indexNode(i);
+			for (int c : this.networkModel.getConnectionIndexes(this.networkModel.getNodeId(i)))
+			{
+				if (c < this.indexedConnections)
+					indexConnection(c);
+			}
+		}
+		for (int i=this.indexedConnections; i<nConnections; i++)
+			indexConnection(i);
+		indexed();
+	}
+
+	/**
+	 * Brings the measurements, the shapes of connections and the index up to date
+	 * with a change to a node
+	 */
+	void nodeChanged(NetworkChangeEvent e)
+	{
+		//Ids are handed out again when a removal is undone
+		if (e.getId() < this.measured.length)
+			this.measured[e.getId()] = false;
+		for (int c : this.networkModel.getConnectionIndexes(e.getId()))
+			forgetShape(this.networkModel.getConnectionId(c));
+		if (this.nodeIndex == null)
+			return;
+		if (e.getType() == NetworkChangeEvent.Type.REMOVED)
+			this.nodeIndex.remove(e.getId());
+		else
+		{
+			indexNode(this.networkModel.getNodeIndexById(e.getId()));
+			//Connections move with their nodes, and a new or renamed node may have had
+			//connections waiting for it
+			for (int c : this.networkModel.getConnectionIndexes(e.getId()))
+				indexConnection(c);
+		}
+		indexed();
+	}
+
+	/**
+	 * Brings its shape and the index up to date with a change to a connection
+	 */
+	void connectionChanged(NetworkChangeEvent e)
+	{
+		forgetShape(e.getId());
+		if (this.connectionIndex == null)
+			return;
+		if (e.getType() == NetworkChangeEvent.Type.REMOVED)
+			this.connectionIndex.remove(e.getId());
+		else
+			indexConnection(this.networkModel.getConnectionIndexById(e.getId()));
+		indexed();
+	}
+
+	/**
+	 * @return the indexes, in increasing order, of the nodes whose outline or text
+	 * 	bounds hold m
+	 */
+	ArrayList<Integer> getNodesAt(Point2D m)
+	{
+		buildIndex();
+		ArrayList<Integer> ids = this.nodeIndex.query(m.getX(), m.getY(), m.getX(), m.getY());
+		ArrayList<Integer> result = new ArrayList<Integer>(ids.size());
+		for (int id : ids)
+			result.add(this.networkModel.getNodeIndexById(id));
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the indexes, in increasing order, of the connections whose curves'
+	 * 	bounds come within distance of m
+	 */
+	ArrayList<Integer> getConnectionsNear(Point2D m, double distance)
+	{
+		buildIndex();
+		ArrayList<Integer> ids = this.connectionIndex.query(m.getX()-distance, m.getY()-distance, m.getX()+distance, m.getY()+distance);
+		ArrayList<Integer> result = new ArrayList<Integer>(ids.size());
+		for (int id : ids)
+			result.add(this.networkModel.getConnectionIndexById(id));
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the indexes, in increasing order, of the nodes whose bounds meet area,
+	 * 	and of the node being dragged, which the index has where the model has it
+	 */
+	private ArrayList<Integer> getNodesIn(Rectangle2D area)
+	{
+		buildIndex();
+		ArrayList<Integer> ids = this.nodeIndex.query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+		ArrayList<Integer> result = new ArrayList<Integer>(ids.size()+1);
+		for (int id : ids)
+			result.add(this.networkModel.getNodeIndexById(id));
+		int dragged = getDraggedNode();
+		if (dragged >= 0 && !result.contains(dragged))
+			result.add(dragged);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the indexes, in increasing order, of the connections whose curves'
+	 * 	bounds meet area, and of those attached to the node being dragged
+	 */
+	private ArrayList<Integer> getConnectionsIn(Rectangle2D area)
+	{
+		buildIndex();
+		ArrayList<Integer> ids = this.connectionIndex.query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+		HashSet<Integer> result = new HashSet<Integer>(ids.size()*2);
+		for (int id : ids)
+			result.add(this.networkModel.getConnectionIndexById(id));
+		int dragged = getDraggedNode();
+		if (dragged >= 0)
+		{
+			for (int c : this.networkModel.getConnectionIndexes(this.networkModel.getNodeId(dragged)))
+				result.add(c);
+		}
+		ArrayList<Integer> sorted = new ArrayList<Integer>(result);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * @return the index of the node drawn away from where the model has it, or -1
+	 */
+	private int getDraggedNode()
+	{
+		if (this.curNodePosition == null || this.curNode < 0 || this.curNode >= this.networkModel.nNodes())
+			return -1;
+		return this.curNode;
+	}
+
+	private void buildIndex()
+	{
+		if (this.nodeIndex != null)
+			return;
+		this.nodeIndex = new Quadtree();
+		this.connectionIndex = new Quadtree();
+		for (int i=0; i<this.networkModel.nNodes(); i++)
+			indexNode(i);
+		for (int i=0; i<this.networkModel.nConnections(); i++)
+			indexConnection(i);
+		indexed();
+	}
+
+	/**
+	 * Notes that the index is up to date with the whole model, so that appended()
+	 * only indexes what comes after it.  Removals leave fewer nodes and connections
+	 * than were indexed, and appends must then start from the new end.
+	 */
+	private void indexed()
+	{
+		this.indexedNodes = this.networkModel.nNodes();
+		this.indexedConnections = this.networkModel.nConnections();
+	}
+
+	private void indexNode(int i)
+	{
+		Rectangle2D r = getNodeHitBounds(i);
+		this.nodeIndex.put(this.networkModel.getNodeId(i), r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY());
+	}
+
+	private void indexConnection(int i)
+	{
+		//Where the model has the ends, even if one is being dragged
+		int id = shape(i);
+		if (id < 0)
+		{
+			//Not drawn, so nothing to hit
+			this.connectionIndex.remove(this.networkModel.getConnectionId(i));
+			return;
+		}
+		Rectangle2D r = this.curveBounds[id];
+		this.connectionIndex.put(id, r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY());
+	}
+
+	/**
+	* Test routine to check that what the renderer keeps between calls matches what
+	* it would work out afresh.  Nothing else should appear on a correct test.
+	**/
+	public static void Test()
+	{
+		boolean result = true;
+		System.out.println("testing NetworkRenderer");
+		
+		try {
+			result &= testCaches();
+		} catch (IOException e) {
+			e.printStackTrace();
+			result = false;
+		}
+		
+		if (result)
+			System.out.println("NetworkRenderer OK");
+	}
+	
+	private static boolean testCaches() throws IOException
+	{
+		final Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		final FontMetrics FM = g.getFontMetrics(FONT);
+		final NetworkModel nm = new NetworkModel();
+		final NetworkRenderer cached = new NetworkRenderer(nm, FONT, FM);
+		final boolean[] loading = new boolean[1];
+		//Kept up to date by the model's events, as a NetworkView keeps its renderer
+		nm.addNetworkListener(new NetworkListener() {
+			public void nodeChanged(NetworkChangeEvent e) { cached.nodeChanged(e); }
+			public void connectionChanged(NetworkChangeEvent e) { cached.connectionChanged(e); }
+			public void transformChanged() { }
+			public void networkChanged()
+			{
+				if (loading[0])
+					cached.appended();
+				else
+					cached.invalidate();
+			}
+		});
+		
+		Random random = new Random(1);
+		for (int step=0; step<600; step++)
+		{
+			String name = "node "+random.nextInt(40);
+			int op = random.nextInt(10);
+			if (step == 0 || op == 0)
+				nm.newNode(new NetworkNode(name, random.nextInt(800), random.nextInt(600)));
+			else if (op == 1 && nm.nNodes() > 0)
+				nm.changeNodeName(nm.getNode(random.nextInt(nm.nNodes())), name);
+			else if (op == 2 && nm.nNodes() > 0)
+				nm.changeNodePosition(nm.getNode(random.nextInt(nm.nNodes())), random.nextInt(800), random.nextInt(600));
+			else if (op == 3)
+			{
+				//Either end may name no node yet, and wait for one
+				Side[] sides = Side.values();
+				nm.addConnection(new NetworkConnection(name, sides[random.nextInt(4)], "node "+random.nextInt(40), sides[random.nextInt(4)]));
+			}
+			//Removals cannot be undone, so they only come once undoing is over
+			else if (op == 4 && step < 400 && nm.canUndo())
+				nm.undo();
+			else if (op == 5 && step < 400 && nm.canRedo())
+				nm.redo();
+			else if (op == 6 && step >= 400 && nm.nNodes() > 0)
+				nm.removeNode(random.nextInt(nm.nNodes()));
+			else if (op == 7 && step >= 400 && nm.nConnections() > 0)
+				nm.removeConnection(random.nextInt(nm.nConnections()));
+			else if (op == 8)
+			{
+				//A batch of appends, as a NetworkLoader makes
+				loading[0] = true;
+				nm.suspendNotifications();
+				nm.appendNode(name, random.nextInt(800), random.nextInt(600));
+				nm.appendConnection("node "+random.nextInt(40), Side.R, name, Side.L);
+				nm.resumeNotifications();
+				loading[0] = false;
+			}
+			
+			String failure = compare(cached, new NetworkRenderer(nm, FONT, FM), nm, g, random);
+			if (failure != null)
+			{
+				System.out.println("Failed: renderer after "+step+" edits: "+failure);
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return what cached has that fresh, made since the model last changed, does
+	 * 	not, or null if they agree.  Also checks that culling keeps everything whose
+	 * 	bounds meet the area drawn.
+	 */
+	private static String compare(NetworkRenderer cached, NetworkRenderer fresh, NetworkModel nm, Graphics2D g, Random random)
+	{
+		if (nm.nNodes() > 0 && random.nextInt(4) == 0)
+		{
+			//Dragging draws one node away from where the model has it
+			Point2D position = new Point2D.Double(random.nextInt(800), random.nextInt(600));
+			int dragged = random.nextInt(nm.nNodes());
+			cached.setDragged(dragged, position);
+			fresh.setDragged(dragged, position);
+		}
+		try {
+			for (int i=0; i<nm.nNodes(); i++)
+			{
+				if (cached.getNodeTextWidth(i) != fresh.getNodeTextWidth(i) || cached.getNodeOvalWidth(i) != fresh.getNodeOvalWidth(i)
+					|| cached.getNodeOvalHeight(i) != fresh.getNodeOvalHeight(i))
+					return "size of node "+i;
+				for (Side s : Side.values())
+				{
+					if (!cached.getConnectionPoint(i, s).equals(fresh.getConnectionPoint(i, s)))
+						return "side "+s+" of node "+i;
+				}
+			}
+			for (int i=0; i<nm.nConnections(); i++)
+			{
+				CubicCurve2D a = cached.getConnectionCurve(i);
+				CubicCurve2D b = fresh.getConnectionCurve(i);
+				if ((a == null) != (b == null))
+					return "whether connection "+i+" is drawn";
+				if (a != null && (!a.getP1().equals(b.getP1()) || !a.getCtrlP1().equals(b.getCtrlP1())
+								  || !a.getCtrlP2().equals(b.getCtrlP2()) || !a.getP2().equals(b.getP2())))
+					return "curve of connection "+i;
+				if (!Arrays.deepEquals(cached.getConnectionCoefficients(i), fresh.getConnectionCoefficients(i)))
+					return "coefficients of connection "+i;
+			}
+			
+			Rectangle2D area = new Rectangle2D.Double(random.nextInt(800)-100, random.nextInt(600)-100, random.nextInt(300), random.nextInt(300));
+			ArrayList<Integer> nodes = new ArrayList<Integer>();
+			for (int i=0; i<nm.nNodes(); i++)
+			{
+				if (meets(fresh.getNodeHitBounds(i), area) || i == fresh.getDraggedNode())
+					nodes.add(i);
+			}
+			if (!cached.getNodesIn(area).equals(nodes))
+				return "nodes in "+area+": "+cached.getNodesIn(area)+", should be "+nodes;
+			cached.drawNodes(g, area, -1, -1);
+			if (cached.getNodesDrawn() != nodes.size())
+				return "nodes drawn";
+			ArrayList<Integer> connections = new ArrayList<Integer>();
+			for (int i=0; i<nm.nConnections(); i++)
+			{
+				int id = fresh.shape(i);
+				if ((id >= 0 && meets(fresh.curveBounds[id], area)) || fresh.isDragged(i))
+					connections.add(i);
+			}
+			if (!cached.getConnectionsIn(area).equals(connections))
+				return "connections in "+area+": "+cached.getConnectionsIn(area)+", should be "+connections;
+			cached.drawConnections(g, area, -1);
+			if (cached.getConnectionsDrawn() != connections.size())
+				return "connections drawn";
+			
+			Point2D m = new Point2D.Double(area.getX(), area.getY());
+			if (nm.nNodes() > 0)
+			{
+				int i = random.nextInt(nm.nNodes());
+				m.setLocation(nm.getNodeX(i)+random.nextInt(40)-20, nm.getNodeY(i)+random.nextInt(20)-10);
+			}
+			if (!cached.getNodesAt(m).equals(fresh.getNodesAt(m)))
+				return "nodes at "+m;
+			if (!cached.getConnectionsNear(m, 5).equals(fresh.getConnectionsNear(m, 5)))
+				return "connections near "+m;
+		} finally {
+			cached.setDragged(-1, null);
+		}
+		return null;
+	}
+	
+	/**
+	 * @return true if r overlaps or touches area, as the index counts it
+	 */
+	private static boolean meets(Rectangle2D r, Rectangle2D area)
+	{
+		return r.getMinX() <= area.getMaxX() && r.getMaxX() >= area.getMinX()
+			&& r.getMinY() <= area.getMaxY() && r.getMaxY() >= area.getMinY();
+	}
+}
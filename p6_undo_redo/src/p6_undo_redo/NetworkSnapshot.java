@@ -0,0 +1,136 @@
+package p6_undo_redo;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import p6_undo_redo.NetworkConnection.Side;
+
+/**
+ * An immutable copy of what a save writes, taken from a model on the thread that
+ * owns it.  write() may then run on any thread while the model goes on changing.
+ *
+ * Taking one copies nothing but the names of connection ends that are not bound
+ * to a node: the snapshot shares the model's columns, which the model copies
+ * before it next changes them.
+ *
+ * A snapshot holds either the whole model, to be written to a file, or only the
+ * journal records made since the last save, to be appended to the file's journal.
+ */
+public class NetworkSnapshot
+{
+	private String path;
+	private int modCount;
+
+	//A whole model
+	private NodeStore.Columns nodes;
+	private ConnectionStore.Columns connections;
+	//The names of the ends of connections not bound to a node, by connection index
+	private HashMap<Integer, String[]> unbound;
+
+	//Or the journal records since the last save
+	private String journalRecords;
+
+	/**
+	 * Shares the whole of model, to be written to path
+	 * @param unbound the names of the ends of connections not bound to a node, by
+	 * 	connection index, with null for the ends that are bound
+	 */
+	NetworkSnapshot(NetworkModel model, String path, NodeStore.Columns nodes, ConnectionStore.Columns connections,
+					HashMap<Integer, String[]> unbound)
+	{
+		this.path = path;
+		this.modCount = model.getModCount();
+		this.nodes = nodes;
+		this.connections = connections;
+		this.unbound = unbound;
+	}
+
+	/**
+	 * Holds journal records to be appended to the journal of path
+	 */
+	NetworkSnapshot(NetworkModel model, String path, String journalRecords)
+	{
+		this.path = path;
+		this.modCount = model.getModCount();
+		this.journalRecords = journalRecords;
+	}
+
+	/**
+	 * @return the file this snapshot is written to
+	 */
+	public String getPath()
+	{
+		return this.path;
+	}
+
+	int getModCount()
+	{
+		return this.modCount;
+	}
+
+	int nNodes()
+	{
+		return this.nodes.size;
+	}
+
+	String getNodeName(int i)
+	{
+		return this.nodes.getName(i);
+	}
+
+	double getX(int i)
+	{
+		return this.nodes.xs[i];
+	}
+
+	double getY(int i)
+	{
+		return this.nodes.ys[i];
+	}
+
+	int nConnections()
+	{
+		return this.connections.size;
+	}
+
+	String getConnectionNode1(int i)
+	{
+		return endName(this.connections.ends1[i], i, 0);
+	}
+
+	String getConnectionNode2(int i)
+	{
+		return endName(this.connections.ends2[i], i, 1);
+	}
+
+	private String endName(int nodeId, int i, int end)
+	{
+		if (nodeId < 0)
+			return this.unbound.get(i)[end];
+		return this.nodes.getName(this.nodes.positions[nodeId]);
+	}
+
+	Side getConnectionSide1(int i)
+	{
+		return ConnectionStore.unpackSide1(this.connections.sides[i]);
+	}
+
+	Side getConnectionSide2(int i)
+	{
+		return ConnectionStore.unpackSide2(this.connections.sides[i]);
+	}
+
+	/**
+	 * Writes the snapshot out.  Safe to call from any thread.
+	 */
+	public void write() throws IOException
+	{
+		if (this.journalRecords != null)
+		{
+			NetworkJournal.append(this.path, this.journalRecords);
+			return;
+		}
+		NetworkFormats.write(this, this.path);
+		NetworkJournal.delete(this.path);
+	}
+}
@@ -6,6 +6,9 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.CubicCurve2D;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -21,10 +24,13 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	private NetworkModel networkModel;
 	private Font font;
 	private FontMetrics FM;
+	private NetworkRenderer renderer;
 	
 	private int curNode;
+	private int curNodeId = -1;
 	private Point2D curNodePosition;
 	private int curConnection;
+	private int curConnectionId = -1;
 	private int curCharIndex;
 	
 	private boolean snapping;
@@ -40,17 +46,24 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	
 	private AffineTransform midTransform;
 	
-	private double[][] bezierMatrix = { {-1,  3, -3, 1},
-										{ 3, -6,  3, 0},
-										{-3,  3,  0, 0},
-										{ 1,  0,  0, 0}};
+	private boolean showDrawCounts;
+	
+	//While a node is dragged, everything else as last drawn, and what it was drawn with
+	private boolean dragging;
+	private BufferedImage stillLayer;
+	private AffineTransform stillTransform;
+	private int stillConnection;
+	
+	//While a NetworkLoader fills in the model, which it only appends to
+	private NetworkLoader loader;
 	
 	public NetworkView(NetworkModel networkModel)
 	{
 		this.networkModel = networkModel;
 		mode = Mode.SELECT;
-		font = new Font("Helvetica",Font.PLAIN,15);
+		font = NetworkRenderer.FONT;
 		FM = getFontMetrics(font);
+		renderer = new NetworkRenderer(networkModel, font, FM);
 		
 		snapping = false;
 		startConnection = null;
@@ -88,29 +101,79 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	}
 	
 	/**
-	 * Tells the model to save
+	 * Tells the model to save, without waiting for the file to be written
 	 */
 	public void save()
 	{
-		try {
-			networkModel.save();
-		} catch (Exception e) {
-			e.printStackTrace();
+		save(null);
+	}
+	
+	/**
+	 * Saves the model in the background.  The model is copied here, on the event
+	 * thread, and can be edited while the copy is written.  If a save is already
+	 * under way this one starts when it finishes.
+	 * @param whenSaved run on the event thread once the save succeeds; may be null
+	 */
+	public void save(final Runnable whenSaved)
+	{
+		final NetworkModel model = networkModel;
+		if (model.isSaving())
+		{
+			Timer retry = new Timer(50, new ActionListener() {
+				public void actionPerformed(ActionEvent e) { save(whenSaved); }
+			});
+			retry.setRepeats(false);
+			retry.start();
+			return;
 		}
+		
+		final NetworkSnapshot snapshot = model.beginSave();
+		new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws IOException
+			{
+				snapshot.write();
+				return null;
+			}
+			
+			@Override
+			protected void done()
+			{
+				try {
+					get();
+					model.endSave(snapshot, true);
+					if (whenSaved != null)
+						whenSaved.run();
+				} catch (Exception e) {
+					model.endSave(snapshot, false);
+					Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+					JOptionPane.showMessageDialog(NetworkView.this, "Could not save "+snapshot.getPath()+"\n"+cause.getMessage(),
+												  "Save Failed", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}.execute();
 	}
 	
 	/**
 	 * Creates a new model with the contents of the current model,
 	 * but this the path specified.  The will be registered with the new model.
+	 * The new model's file is watched if the old one's was, and the old one's
+	 * stops being watched if no other view shows it.
 	 * @param path
 	 */
 	public void saveAs(String path)
 	{
 		try {
+			boolean watched = networkModel.isWatched();
 			networkModel.saveAs(path);
 			networkModel.removeNetworkListener(this);
+			if (networkModel.nNetworkListeners() == 0)
+				networkModel.setWatched(false);
 			networkModel = new NetworkModel(path);
+			networkModel.setWatched(watched);
 			networkModel.addNetworkListener(this);
+			renderer.setNetworkModel(networkModel);
+			stillLayer = null;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -152,6 +215,7 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	 */
 	public void setCurConnection(int curConnection) {
 		this.curConnection = curConnection;
+		this.curConnectionId = (curConnection >= 0) ? networkModel.getConnection(curConnection).getId() : -1;
 	}
 
 	/**
@@ -166,6 +230,7 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	 */
 	public void setCurNode(int curNode) {
 		this.curNode = curNode;
+		this.curNodeId = (curNode >= 0) ? networkModel.getNodeId(curNode) : -1;
 		if (curNode >= 0)
 		{
 			NetworkNode n = networkModel.getNode(curNode);
@@ -174,6 +239,10 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		}
 		else
 			this.curNodePosition = null;
+		//Selecting a node does not start a drag; the first motion does
+		renderer.setDragged(-1, null);
+		this.dragging = false;
+		this.stillLayer = null;
 	}
 	
 	/**
@@ -203,35 +272,13 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	}
 
 	/**
-	 * @param n : the network node being connected to
+	 * @param i : the index of the network node being connected to
 	 * @param s : the side of the node to connect to
-	 * @param FM : the Font Metrix to use
-	 * @return : int [2] with x and y coordinates
+	 * @return : the connection point in model coordinates
 	 */
-	private Point2D getConnectionPoint(NetworkNode n, Side s)
-	{
-		Point2D p = new Point();
-		double x = (curNodePosition != null && networkModel.getNodeIndex(n) == curNode) ? curNodePosition.getX() : n.getX();
-		double y = (curNodePosition != null && networkModel.getNodeIndex(n) == curNode) ? curNodePosition.getY() : n.getY();
-		int nodeWidth = getNodeWidth(FM.stringWidth(n.getName()));
-		int nodeHeight = getNodeHeight(nodeWidth);
-		switch (s)
-		{
-		case T:
-			y = y-(nodeHeight/2);
-			break;
-		case B:
-			y = y+(nodeHeight/2);
-			break;
-		case L:
-			x = x-(nodeWidth/2);
-			break;
-		case R:
-			x = x+(nodeWidth/2);
-			break;
-		}
-		p.setLocation(x, y);
-		return p;
+	private Point2D getConnectionPoint(int i, Side s)
+	{
+		return renderer.getConnectionPoint(i, s);
 	}
 	
 	/**
@@ -242,11 +289,10 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		ArrayList<Point2D> conPointList = new ArrayList<Point2D>();
 		for (int i=0; i<networkModel.nNodes(); i++)
 		{
-			NetworkNode n = networkModel.getNode(i);
-			conPointList.add(getConnectionPoint(n, Side.B));
-			conPointList.add(getConnectionPoint(n, Side.L));
-			conPointList.add(getConnectionPoint(n, Side.R));
-			conPointList.add(getConnectionPoint(n, Side.T));
+			conPointList.add(getConnectionPoint(i, Side.B));
+			conPointList.add(getConnectionPoint(i, Side.L));
+			conPointList.add(getConnectionPoint(i, Side.R));
+			conPointList.add(getConnectionPoint(i, Side.T));
 		}
 		
 		return conPointList;
@@ -264,15 +310,149 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		
 		AffineTransform at = networkModel.getCurrentTransformation(midTransform);
 		
-		g2.transform(at);
-		
-        g.setFont(font);
-        drawConnections(g2);
-        drawNodes(g2);
+		Rectangle2D area = getModelClip(g2, at);
+		if (dragging && area != null && getWidth() > 0 && getHeight() > 0)
+		{
+			//Only the dragged node and its connections move, so the rest is kept
+			g2.drawImage(getStillLayer(g2, at), 0, 0, getWidth(), getHeight(), null);
+			g2.transform(at);
+			g.setFont(font);
+			renderer.drawDragged(g2, getCurConnection(), getCurNode(), getCurCharIndex());
+		}
+		else
+		{
+			g2.transform(at);
+			
+	        g.setFont(font);
+	        renderer.drawConnections(g2, area, getCurConnection());
+	        drawConnectionPrompt(g2);
+	        renderer.drawNodes(g2, area, getCurNode(), getCurCharIndex());
+		}
         
         g2.setTransform(original);
         drawTransformCenter(g2);
+        if (showDrawCounts)
+        	drawDrawCounts(g2);
     }
+	
+	/**
+	 * @return an image of the whole view but the node being dragged and its
+	 * 	connections, as g shows it once transformed by at.  The image is kept, and
+	 * 	only drawn again if the view's size, transformation or selected connection
+	 * 	has changed, or the model has since it was drawn.
+	 */
+	private BufferedImage getStillLayer(Graphics2D g, AffineTransform at)
+	{
+		//Drawn at the device's resolution, which may be finer than the view's
+		double sx = g.getTransform().getScaleX();
+		double sy = g.getTransform().getScaleY();
+		int width = (int) Math.ceil(getWidth()*sx);
+		int height = (int) Math.ceil(getHeight()*sy);
+		if (stillLayer != null && stillLayer.getWidth() == width && stillLayer.getHeight() == height
+			&& at.equals(stillTransform) && stillConnection == getCurConnection())
+			return stillLayer;
+		
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		stillLayer = (gc != null) ? gc.createCompatibleImage(width, height)
+								  : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		stillTransform = new AffineTransform(at);
+		stillConnection = getCurConnection();
+		Graphics2D lg = stillLayer.createGraphics();
+		try {
+			lg.setRenderingHints(g.getRenderingHints());
+			lg.setColor(getBackground());
+			lg.fillRect(0, 0, width, height);
+			lg.scale(sx, sy);
+			Rectangle2D area = getModelClip(lg, at);
+			lg.transform(at);
+			lg.setFont(font);
+			renderer.drawStill(lg, area, stillConnection);
+		} finally {
+			lg.dispose();
+		}
+		return stillLayer;
+	}
+	
+	/**
+	 * @return the part of the model showing in g's clip once it is transformed by
+	 * 	at, or null if that cannot be worked out
+	 */
+	private Rectangle2D getModelClip(Graphics2D g, AffineTransform at)
+	{
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		//Leave room for the stroke and the rounding done when drawing
+		clip.grow(3, 3);
+		try {
+			return at.createInverse().createTransformedShape(clip).getBounds2D();
+		} catch (NoninvertibleTransformException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Tells the view which NetworkLoader is filling in the model, or null once it
+	 * is done.  While one is, a networkChanged() notification only means records
+	 * were appended, so only they are measured and indexed.
+	 */
+	void setLoader(NetworkLoader loader)
+	{
+		this.loader = loader;
+	}
+	
+	/**
+	 * @return true while a NetworkLoader is filling in the model
+	 */
+	public boolean isLoading()
+	{
+		return this.loader != null;
+	}
+	
+	/**
+	 * Stops the NetworkLoader filling in the model, which then closes the window
+	 * without offering the partly read model for saving
+	 */
+	public void cancelLoading()
+	{
+		if (this.loader != null)
+			this.loader.cancel(false);
+	}
+	
+	/**
+	 * Draws node names in font, measuring every node again
+	 */
+	public void setNodeFont(Font font)
+	{
+		this.font = font;
+		this.FM = getFontMetrics(font);
+		renderer.setFont(this.font, this.FM);
+		stillLayer = null;
+		this.repaint();
+	}
+
+	/**
+	 * Shows how many nodes and connections were drawn, and how many were culled
+	 * for lying outside the area painted
+	 */
+	public void setShowDrawCounts(boolean show)
+	{
+		this.showDrawCounts = show;
+		this.repaint();
+	}
+	
+	public boolean isShowingDrawCounts()
+	{
+		return this.showDrawCounts;
+	}
+	
+	private void drawDrawCounts(Graphics2D g)
+	{
+		String counts = "nodes: "+renderer.getNodesDrawn()+" drawn, "+renderer.getNodesCulled()+" culled"
+						+"   connections: "+renderer.getConnectionsDrawn()+" drawn, "+renderer.getConnectionsCulled()+" culled";
+		g.setColor(Color.gray);
+		g.drawString(counts, 5, getHeight()-5);
+	}
 
 	private AffineTransform createNewTransformation() 
 	{
@@ -355,17 +535,6 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		}
 	}
 
-	private int getNodeWidth(int textWidth)
-	{
-		return textWidth+10;
-	}
-	
-	private int getNodeHeight(int ovalWidth) 
-	{
-		int textHeight = FM.getHeight();
-		return (ovalWidth/4 > textHeight+textHeight/2) ? ovalWidth/4 : textHeight+textHeight/2;
-	}
-	
 	private String insertCharAt(String text, char c, int index) 
 	{
 		String before = text.substring(0, index);
@@ -385,42 +554,6 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		return text;
 	}
 	
-	private void drawNodes(Graphics2D g) 
-	{
-		for (int i=0; i<this.networkModel.nNodes(); i++)
-        {
-        	NetworkNode n = this.networkModel.getNode(i);
-        	
-        	double x = (curNodePosition != null && i == getCurNode()) ? curNodePosition.getX() : n.getX();
-        	double y = (curNodePosition != null && i == getCurNode()) ? curNodePosition.getY() : n.getY();
-        	
-    		int textWidth = FM.stringWidth(n.getName());
-    		int textHeight = FM.getHeight();
-    		int textLeft = (int) (x-textWidth/2);
-    		int textBase = (int) (y+(textHeight/4));
-    		
-    		int ovalWidth = getNodeWidth(textWidth);
-    		int ovalHeight = getNodeHeight(ovalWidth);
-    		g.setColor(Color.white);
-    		g.fillOval((int)x-ovalWidth/2, (int)y-ovalHeight/2, ovalWidth, ovalHeight);
-    		
-    		String text = n.getName();
-    		//Determine if Node should be highlighted
-    		if (i == getCurNode())
-    		{
-    			g.setColor(Color.red);
-    			//Determine char insertion point
-    			if(getCurCharIndex() >=0)
-    				text = insertCharAt(text, '|', getCurCharIndex());
-    		}
-    		else
-    			g.setColor(Color.black);
-    		
-    		g.drawOval((int)x-ovalWidth/2, (int)y-ovalHeight/2, ovalWidth, ovalHeight);
-    		g.drawString(text, textLeft, textBase);
-        }
-	}
-	
 	/**
 	 * @param m the mouse point
 	 * @return i the index representing the node selected or -1 if none
@@ -428,18 +561,17 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	private int getNode(Point2D m)
 	{
 		int result = -1;
-		for (int i=0; i<this.networkModel.nNodes(); i++)
+		for (int i : renderer.getNodesAt(m))
 		{
-			NetworkNode n = this.networkModel.getNode(i);
-			int textWidth = FM.stringWidth(n.getName());
-    		
-    		int ovalWidth = getNodeWidth(textWidth);
-    		int ovalHeight = getNodeHeight(ovalWidth);
-    		int upperLeft_x = (int) (n.getX()-ovalWidth/2);
-    		int upperLeft_y = (int) (n.getY()-ovalHeight/2);
+			double nx = this.networkModel.getNodeX(i);
+			double ny = this.networkModel.getNodeY(i);
+    		int ovalWidth = renderer.getNodeOvalWidth(i);
+    		int ovalHeight = renderer.getNodeOvalHeight(i);
+    		int upperLeft_x = (int) (nx-ovalWidth/2);
+    		int upperLeft_y = (int) (ny-ovalHeight/2);
     		Point2D upperLeft = new Point(upperLeft_x, upperLeft_y);
     		Point2D lowerRight  = new Point(upperLeft_x+ovalWidth, upperLeft_y+ovalHeight);
-    		Point2D center = new Point((int)n.getX(), (int)n.getY());
+    		Point2D center = new Point((int)nx, (int)ny);
     		
     		if (inBoundingBox(upperLeft, lowerRight, m))
     		{
@@ -456,13 +588,13 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	{
 		int result = -1;
 		
-		for (int i=0; i<this.networkModel.nNodes(); i++)
+		for (int i : renderer.getNodesAt(m))
 		{
-			NetworkNode n = this.networkModel.getNode(i);
-			int textWidth = FM.stringWidth(n.getName());
+			String name = this.networkModel.getNodeName(i);
+			int textWidth = renderer.getNodeTextWidth(i);
 			int textHeight = FM.getHeight();
-			int textLeft = (int) (n.getX()-textWidth/2);
-    		int textBase = (int) (n.getY()+(textHeight/4));
+			int textLeft = (int) (this.networkModel.getNodeX(i)-textWidth/2);
+    		int textBase = (int) (this.networkModel.getNodeY(i)+(textHeight/4));
 			int upperRight_x = (int) (textLeft+textWidth);
 			int upperRight_y = (int) (textBase-FM.getAscent());
 			Point2D upperRight = new Point(upperRight_x, upperRight_y);
@@ -470,7 +602,7 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 			
 			if (inBoundingBox(upperRight, lowerLeft, m))
 			{
-				result = getCharIndex(n.getName(), "", textLeft, 0, (int)m.getX());
+				result = getCharIndex(name, "", textLeft, 0, (int)m.getX());
 			}
 		}
 		return result;
@@ -494,101 +626,18 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		return getCharIndex(text, sofar, start_x, ++i, mx);
 	}
 	
-	private Point2D calculateCurveControlPoint(Point2D p1, Side s, double distance)
-	{
-		Point2D c = new Point();
-		double x = p1.getX();
-		double y = p1.getY();
-		
-		distance = (distance > 100) ? 100 : distance;
-		
-		switch (s)
-		{
-		case B:
-			y += distance;
-			break;
-		case T:
-			y -= distance;
-			break;
-		case R:
-			x += distance;
-			break;
-		case L:
-			x -= distance;
-			break;
-		}
-		
-		c.setLocation(x, y);
-		return c;
-	}
-
-
 	/**
-	 * Draws all of the connections in networkModel
-	 * @param g Graphics object
+	 * Draws the connection being made and the connection point it would snap to
 	 */
-	private void drawConnections(Graphics2D g) 
+	private void drawConnectionPrompt(Graphics2D g)
 	{
-		for (int i=0; i<this.networkModel.nConnections(); i++)
-        {
-			//Determine if connection should be highlighted
-			if (i == getCurConnection())
-				g.setColor(Color.red);
-			else
-				g.setColor(Color.black);
-			
-        	NetworkConnection c = this.networkModel.getConnection(i);
-        	NetworkNode n1 = this.networkModel.getNode(c.getNode1());
-        	NetworkNode n2 = this.networkModel.getNode(c.getNode2());
-        	if (n1 != null && n2 != null)
-        	{
-        		Side s1 = c.getSide1();
-        		Side s2 = c.getSide2();
-        		Point2D p1 = getConnectionPoint(n1, s1);
-        		Point2D p2 = getConnectionPoint(n2, s2);
-        		double distance = Math.sqrt(pointDistance(p1, p2));
-        		Point2D c1 = calculateCurveControlPoint(p1, s1, distance);
-        		Point2D c2 = calculateCurveControlPoint(p2, s2, distance);
-        		CubicCurve2D curve = new CubicCurve2D.Double(p1.getX(), p1.getY(), 
-        													 c1.getX(), c1.getY(), 
-        													 c2.getX(), c2.getY(), 
-        													 p2.getX(), p2.getY());
-        		g.draw(curve);
-//        		g.drawLine(p1.getX(), p1.getY(), p2.getX(), p2.getY());
-        	}
-        }
-		
+		g.setColor(Color.black);
 		if (tmpConnection != null)
 			g.draw(this.tmpConnection);
 		if (connectionPrompt != null)
 			g.drawRect((int)connectionPrompt.getX(), (int)connectionPrompt.getY(), 16, 16);
 	}
 	
-	private double[][] computeCoefficientMatrix(double[][] geo)
-	{
-		double[][] coef = new double[2][4];
-
-		for (int i=0; i<2; i++)
-			for (int j=0; j<4; j++)
-				for (int k=0; k<4; k++)
-					coef[i][j] += geo[i][k] * bezierMatrix[k][j];
-		return coef;
-	}
-	
-	public double[][] computeGeometryMatrix(Point2D p1, Point2D c1, Point2D c2, Point2D p2)
-	{
-		double[][] geo = new double[2][4];
-		geo[0][0] = p1.getX();
-		geo[0][1] = c1.getX();
-		geo[0][2] = c2.getX();
-		geo[0][3] = p2.getX();
-		geo[1][0] = p1.getY();
-		geo[1][1] = c1.getY();
-		geo[1][2] = c2.getY();
-		geo[1][3] = p2.getY();
-		return geo;
-	}
-	
 	/**
 	 * @param m : the mouse point
 	 * @return i : the index representing the connection selected or -1 if none
@@ -597,26 +646,14 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	{
 		int result = -1;
 		double minDist = Double.POSITIVE_INFINITY;
-		for (int i=0; i< this.networkModel.nConnections(); i++)
+		//Only a connection whose curve comes within 5 of m can be within 25 squared of it
+		for (int i : renderer.getConnectionsNear(m, 5))
 		{
-			NetworkConnection c = this.networkModel.getConnection(i);
-			NetworkNode n1 = this.networkModel.getNode(c.getNode1());
-			NetworkNode n2 = this.networkModel.getNode(c.getNode2());
-			if (n1 != null && n2 != null)
+			double[][] coef = renderer.getConnectionCoefficients(i);
+			if (coef != null)
 			{
-				Side s1 = c.getSide1();
-				Side s2 = c.getSide2();
-				Point2D p1 = getConnectionPoint(n1, s1);
-        		Point2D p2 = getConnectionPoint(n2, s2);
-        		double distance = Math.sqrt(pointDistance(p1, p2));
-        		Point2D c1 = calculateCurveControlPoint(p1, s1, distance);
-        		Point2D c2 = calculateCurveControlPoint(p2, s2, distance);
-        		
 //				if (inBoundingBox(p1, p2, m))
 //				{
-					double[][] geo = computeGeometryMatrix(p1, c1, c2, p2);
-					double[][] coef = computeCoefficientMatrix(geo);
-					
 					double dist = pointDistance(nearestPointCurve(coef, m, 0, 1), m);
 					if (dist < minDist)
 						minDist = dist;
@@ -709,13 +746,13 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		return nearestPointLine(a, b, m, newLow, newHigh);
 	}
 	
-	private Point2D nearestPointCurve(double[][] coef, Point2D m, double lowerT, double upperT)
+	private static Point2D nearestPointCurve(double[][] coef, Point2D m, double lowerT, double upperT)
 	{
 		int N = 10;
 		double inc = (upperT - lowerT)/N;
 		Point2D lowP = computePointCurve(coef, lowerT);
 		Point2D highP = computePointCurve(coef, upperT);
-		if (pointDistance(lowP, highP) <= 1.0)
+		if (pointDistance(lowP, highP) <= 1.0 || lowerT+inc <= lowerT)
 			return lowP; //close enough for pixel resolution
 		
 		double nearT = lowerT;
@@ -742,16 +779,16 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	/**
 	 * @return The square of the distance between point a and point b
 	 */
-	private double pointDistance(Point2D p1, Point2D b) 
+	private static double pointDistance(Point2D p1, Point2D b) 
 	{
-		double dx = p1.getX() - b.getX();
-		double dy = p1.getY() - b.getY();
-		return dx*dx+dy*dy;
+		return NetworkRenderer.pointDistance(p1, b);
 	}
 
-	private Point2D computePointCurve(double[][] coef, double t)
+	private static Point2D computePointCurve(double[][] coef, double t)
 	{
-		Point2D result = new Point();
+		//Not rounded to whole pixels, or the ends of a short enough span could stay
+		//on different pixels forever
+		Point2D result = new Point2D.Double();
 		double a = coef[0][0];
 		double b = coef[0][1];
 		double c = coef[0][2];
@@ -838,6 +875,10 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 				networkModel.changeNodePosition(n, x, y);
 			curNodePosition = null;
 		}
+		renderer.setDragged(-1, null);
+		//The drag is over, and the node now lies among the still ones
+		dragging = false;
+		stillLayer = null;
 	}
 	
 	private void midNodeDrag(Point2D p)
@@ -846,6 +887,8 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 		double y = (p.getY() < 0) ? 0 : p.getY();
 		curNodePosition = new Point();
 		curNodePosition.setLocation(x,y);
+		renderer.setDragged(curNode, curNodePosition);
+		dragging = (curNode >= 0);
 		repaint();
 	}
 	
@@ -897,7 +940,7 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	private void midConnection(Point2D p)
 	{
 		double distance = Math.sqrt(pointDistance(startConnection, p));
-		Point2D c1 = calculateCurveControlPoint(startConnection, startSide, distance);
+		Point2D c1 = renderer.calculateCurveControlPoint(startConnection, startSide, distance);
 		tmpConnection = new CubicCurve2D.Double(startConnection.getX(), startConnection.getY(), c1.getX(), c1.getY(), c1.getX(), c1.getY(), p.getX(), p.getY());
 		this.repaint();
 	}
@@ -915,7 +958,7 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 				Side s1 = startSide;
 				Side s2 = computeSide(n2, p);
 				
-				NetworkConnection c = new NetworkConnection(n1.getName(), s1, n2.getName(), s2);
+				NetworkConnection c = new NetworkConnection(n1, s1, n2, s2);
 				networkModel.addConnection(c);
 			}
 		}
@@ -1007,16 +1050,87 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	// Network Listener
 	//********************************************************
 	@Override
-	public void nodeChanged(NetworkNode n)
+	public void nodeChanged(NetworkChangeEvent e)
 	{
-		this.repaint();
+		renderer.nodeChanged(e);
+		stillLayer = null;
+		Rectangle2D dirty = null;
+		if (e.getType() != NetworkChangeEvent.Type.ADDED)
+			dirty = union(dirty, getNodeBounds(e.getOldName(), e.getOldX(), e.getOldY()));
+		if (e.getType() != NetworkChangeEvent.Type.REMOVED)
+			dirty = union(dirty, getNodeBounds(e.getNewName(), e.getNewX(), e.getNewY()));
+		
+		//A moved or renamed node drags the ends of its connections with it.  Removed
+		//nodes have already had their connections removed, each with its own event.
+		if (e.getType() == NetworkChangeEvent.Type.MOVED || e.getType() == NetworkChangeEvent.Type.RENAMED)
+		{
+			for (int c : this.networkModel.getConnectionIndexes(e.getId()))
+			{
+				int id1 = this.networkModel.getConnectionNode1Id(c);
+				int id2 = this.networkModel.getConnectionNode2Id(c);
+				Side s1 = this.networkModel.getConnectionSide1(c);
+				Side s2 = this.networkModel.getConnectionSide2(c);
+				dirty = union(dirty, getConnectionBounds(id1, s1, id2, s2, null));
+				dirty = union(dirty, getConnectionBounds(id1, s1, id2, s2, e));
+			}
+		}
+		repaintModelRegion(dirty);
 	}
 	
 	
 	@Override
-	public void connectionChanged(NetworkConnection c) 
+	public void connectionChanged(NetworkChangeEvent e) 
 	{
-		this.repaint();
+		renderer.connectionChanged(e);
+		stillLayer = null;
+		repaintModelRegion(getConnectionBounds(e.getNode1Id(), e.getSide1(), e.getNode2Id(), e.getSide2(), null));
+	}
+	
+	private Rectangle2D getNodeBounds(String name, double x, double y)
+	{
+		return renderer.getNodeBounds(name, x, y);
+	}
+	
+	/**
+	 * @param moved if not null, the node this event describes is placed at its old
+	 * 	name and location instead of where the model has it now
+	 * @return the bounds, in model coordinates, of a connection between the nodes
+	 * 	with ids id1 and id2, or null if either end is not drawn
+	 */
+	private Rectangle2D getConnectionBounds(int id1, Side s1, int id2, Side s2, NetworkChangeEvent moved)
+	{
+		Point2D p1 = getConnectionPoint(id1, s1, moved);
+		Point2D p2 = getConnectionPoint(id2, s2, moved);
+		if (p1 == null || p2 == null)
+			return null;
+		return renderer.getConnectionCurve(p1, s1, p2, s2).getBounds2D();
+	}
+	
+	private Point2D getConnectionPoint(int nodeId, Side s, NetworkChangeEvent moved)
+	{
+		if (moved != null && nodeId == moved.getId())
+			return renderer.getConnectionPoint(moved.getOldName(), moved.getOldX(), moved.getOldY(), s);
+		int i = this.networkModel.getNodeIndexById(nodeId);
+		return (i < 0) ? null : getConnectionPoint(i, s);
+	}
+	
+	private static Rectangle2D union(Rectangle2D r, Rectangle2D add)
+	{
+		return NetworkRenderer.union(r, add);
+	}
+	
+	/**
+	 * Repaints the part of the screen showing r, given in model coordinates
+	 */
+	private void repaintModelRegion(Rectangle2D r)
+	{
+		if (r == null)
+			return;
+		AffineTransform at = networkModel.getCurrentTransformation(midTransform);
+		Rectangle bounds = at.createTransformedShape(r).getBounds();
+		//Leave room for the stroke and the rounding done when drawing
+		bounds.grow(3, 3);
+		this.repaint(bounds);
 	}
 	
 	@Override
@@ -1024,6 +1138,24 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	{
 		this.repaint();
 	}
+	
+	@Override
+	public void networkChanged()
+	{
+		//A batch of changes may have moved the selection to other indexes
+		if (this.curNodeId >= 0)
+			this.curNode = this.networkModel.getNodeIndexById(this.curNodeId);
+		if (this.curConnectionId >= 0)
+			this.curConnection = this.networkModel.getConnectionIndexById(this.curConnectionId);
+		if (this.dragging)
+			renderer.setDragged(curNode, curNodePosition);
+		if (this.loader != null)
+			renderer.appended();
+		else
+			renderer.invalidate();
+		stillLayer = null;
+		this.repaint();
+	}
 
 	//********************************************************
 	// Mouse Listener
@@ -1279,6 +1411,91 @@ public class NetworkView extends JPanel implements MouseListener, MouseMotionLis
 	public void keyTyped(KeyEvent e) {
 		// TODO Auto-generated method stub
 	}
+	
+	//********************************************************
+	// Tests
+	//********************************************************
+	
+	public static void Test()
+	{
+		boolean result = true;
+		System.out.println("testing NetworkView");
+		
+		result &= testNearestPointCurve();
+		try {
+			result &= testSaveAsWatched();
+		} catch (IOException e) {
+			e.printStackTrace();
+			result = false;
+		}
+		
+		if (result)
+			System.out.println("NetworkView OK");
+	}
+	
+	private static boolean testNearestPointCurve()
+	{
+		boolean result = true;
+		
+		//The ends of this curve are diagonal neighbours.  When points on it were
+		//rounded to whole pixels, the span searched around the nearest point kept
+		//one end on each pixel, so it narrowed until stepping along it no longer
+		//moved, and the search never returned.
+		final double[][] coef = NetworkRenderer.computeCoefficients(new CubicCurve2D.Double(0, 0, 0, 0, 1, 1, 1, 1));
+		final Point2D m = new Point2D.Double(0.6, 0.6);
+		final Point2D[] nearest = new Point2D[1];
+		Thread search = new Thread("nearestPointCurve") {
+			@Override
+			public void run()
+			{
+				nearest[0] = nearestPointCurve(coef, m, 0, 1);
+			}
+		};
+		search.setDaemon(true);
+		search.start();
+		try {
+			search.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (nearest[0] == null)
+		{
+			System.out.println("Failed: nearestPointCurve did not return");
+			result = false;
+		}
+		else if (pointDistance(nearest[0], m) > 1)
+		{
+			System.out.println("Failed: nearestPointCurve");
+			System.out.println("Should be within 1 of: "+m);
+			System.out.println("Actual: "+nearest[0]);
+			result = false;
+		}
+		
+		return result;
+	}
+	
+	private static boolean testSaveAsWatched() throws IOException
+	{
+		boolean result = true;
+		
+		File f = File.createTempFile("watched", ".network");
+		File g = File.createTempFile("watched", ".network");
+		f.deleteOnExit();
+		g.deleteOnExit();
+		NetworkModel old = new NetworkModel(f.getPath());
+		old.setWatched(true);
+		NetworkView view = new NetworkView(old);
+		view.saveAs(g.getPath());
+		NetworkModel saved = view.getNetworkModel();
+		if (old.isWatched() || !saved.isWatched())
+		{
+			System.out.println("Failed: saveAs did not move the watcher to the new file");
+			result = false;
+		}
+		saved.setWatched(false);
+		
+		return result;
+	}
 }
 
 
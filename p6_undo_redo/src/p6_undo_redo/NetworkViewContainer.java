@@ -43,7 +43,19 @@ public class NetworkViewContainer extends JPanel
 		this.networkView = networkView;
 		
 		fileChooser = new JFileChooser();
-		filter = new FileNameExtensionFilter("network", "network");
+		//Every format that can be opened, and each on its own.  Any of them may be
+		//compressed.
+		String gz = NetworkCompression.EXTENSION.substring(1);
+		String nbin = NetworkBinaryFormat.EXTENSION.substring(1);
+		String graphml = GraphMLFormat.EXTENSION.substring(1);
+		String dot = DotFormat.EXTENSION.substring(1);
+		String gv = DotFormat.OTHER_EXTENSION.substring(1);
+		filter = new FileNameExtensionFilter("All networks", "network", nbin, graphml, dot, gv, gz);
+		fileChooser.addChoosableFileFilter(filter);
+		fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("network", "network", gz));
+		fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Binary network", nbin, gz));
+		fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("GraphML", graphml, gz));
+		fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("DOT", dot, gv, gz));
 		fileChooser.setFileFilter(filter);
 		
 		//Set up top menu
@@ -52,11 +64,16 @@ public class NetworkViewContainer extends JPanel
 		JMenuItem open = new JMenuItem("Open");
 		JMenuItem save = new JMenuItem("Save");
 		JMenuItem saveAs = new JMenuItem("Save As");
+		final JCheckBoxMenuItem watch = new JCheckBoxMenuItem("Reload When Changed");
+		final JCheckBoxMenuItem journal = new JCheckBoxMenuItem("Save Edits to Journal");
 		
 		JMenu edit = new JMenu("Edit");
 		undo = new JMenuItem("Undo");
 		redo = new JMenuItem("Redo");
 		
+		JMenu view = new JMenu("View");
+		final JCheckBoxMenuItem drawCounts = new JCheckBoxMenuItem("Show Drawing Counts");
+		
 		open.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) { open(); }
 		});
@@ -69,6 +86,25 @@ public class NetworkViewContainer extends JPanel
 			public void actionPerformed(ActionEvent e) { saveAs(); }
 		});
 		
+		watch.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) { watch(watch); }
+		});
+		
+		journal.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) { journal(journal); }
+		});
+		
+		file.addMenuListener(new MenuListener() {
+			public void menuCanceled(MenuEvent e) { return; }
+			public void menuDeselected(MenuEvent e) { return; }
+			public void menuSelected(MenuEvent e)
+			{
+				NetworkModel model = NetworkViewContainer.this.networkView.getNetworkModel();
+				watch.setSelected(model.isWatched());
+				journal.setSelected(model.isJournaled());
+			}
+		});
+		
 		edit.addMenuListener(new MenuListener() {
 			public void menuCanceled(MenuEvent e) { return; }
 			public void menuDeselected(MenuEvent e) { return; }
@@ -83,13 +119,22 @@ public class NetworkViewContainer extends JPanel
 			public void actionPerformed(ActionEvent e) { redo(); }
 		});
 		
+		drawCounts.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) { NetworkViewContainer.this.networkView.setShowDrawCounts(drawCounts.isSelected()); }
+		});
+		
 		file.add(open);
 		file.add(save);
 		file.add(saveAs);
+		file.addSeparator();
+		file.add(watch);
+		file.add(journal);
 		edit.add(undo);
 		edit.add(redo);
+		view.add(drawCounts);
 		menuBar.add(file);
 		menuBar.add(edit);
+		menuBar.add(view);
 		
 		
 		//Set up left button pallete
@@ -178,7 +223,7 @@ public class NetworkViewContainer extends JPanel
 				if (networkModel.getFileName().equals(path))
 	            	Network.createNewWindow(networkModel); //link to existing NetworkModel
 				else
-					Network.createNewWindow(new NetworkModel(path));
+					NetworkLoader.open(path);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -208,6 +253,27 @@ public class NetworkViewContainer extends JPanel
         }
 	}
 	
+	/**
+	 * Turns watching of the model's file for changes made by other programs on or off
+	 */
+	public void watch(JCheckBoxMenuItem item)
+	{
+		try {
+			networkView.getNetworkModel().setWatched(item.isSelected());
+		} catch (IOException e) {
+			e.printStackTrace();
+			item.setSelected(false);
+		}
+	}
+	
+	/**
+	 * Turns journaled saving of the model on or off
+	 */
+	public void journal(JCheckBoxMenuItem item)
+	{
+		networkView.getNetworkModel().setJournaled(item.isSelected());
+	}
+	
 	public void editMenu()
 	{
 		undo.setEnabled(networkView.canUndo());
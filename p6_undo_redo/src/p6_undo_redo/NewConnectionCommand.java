@@ -15,14 +15,12 @@ public class NewConnectionCommand implements NetworkCommand
 	public void doit() 
 	{
 		this.networkModel.addConnectionToList(connection);
-		this.networkModel.connectionChanged(connection);
 	}
 
 	@Override
 	public void undo() 
 	{
 		this.networkModel.removeConnection(connection);
-		this.networkModel.connectionChanged(connection);
 	}
 
 }
@@ -17,7 +17,6 @@ public class NewNodeCommand implements NetworkCommand
 	{
 		this.node.setNetwork(this.networkModel);
 		this.networkModel.addNodeToList(this.node);
-		this.networkModel.nodeChanged(node);
 	}
 
 	@Override
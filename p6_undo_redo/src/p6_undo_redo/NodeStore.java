@@ -0,0 +1,360 @@
+package p6_undo_redo;
+
+import java.util.Arrays;
+
+/**
+ * Column storage for the nodes of a NetworkModel.
+ *
+ * Coordinates, name references and ids are kept in primitive arrays in node
+ * order, so loops over every node walk contiguous memory.  Names are references
+ * into a StringTable, so repeated names are stored once.  NetworkNode objects
+ * are only created when a caller asks for one, and then read and write through
+ * to the columns.
+ *
+ * The columns can be shared with a snapshot, as Columns.  Adding a node only
+ * writes past the end of what the snapshot reads, but any other change copies
+ * the columns first, so the snapshot keeps seeing the nodes as they were.
+ */
+class NodeStore
+{
+	private NetworkModel networkModel;
+	private StringTable names = new StringTable();
+
+	//Indexed by position in node order
+	private int size;
+	private double[] xs = new double[16];
+	private double[] ys = new double[16];
+	private int[] nameRefs = new int[16];
+	private int[] ids = new int[16];
+	private NetworkNode[] views = new NetworkNode[16];
+
+	//Indexed by node id
+	private int nextId;
+	private int[] positions = new int[16];
+	private int[] nextSameName = new int[16];
+	private int[] prevSameName = new int[16];
+
+	//True while the columns are shared with a snapshot
+	private boolean shared;
+
+	//Indexed by name reference: the first and last node ids with that name, in
+	//node order, or -1
+	private int[] firstByName = filled(16);
+	private int[] lastByName = filled(16);
+
+	/**
+	 * The nodes as they were when shared.  Nothing here is changed afterwards.
+	 */
+	static class Columns
+	{
+		final int size;
+		final double[] xs;
+		final double[] ys;
+		final int[] nameRefs;
+		final String[] names;
+		//By node id
+		final int[] positions;
+
+		private Columns(NodeStore store)
+		{
+			this.size = store.size;
+			this.xs = store.xs;
+			this.ys = store.ys;
+			this.nameRefs = store.nameRefs;
+			this.names = store.names.share();
+			this.positions = store.positions;
+		}
+
+		String getName(int pos)
+		{
+			return this.names[this.nameRefs[pos]];
+		}
+	}
+
+	NodeStore(NetworkModel networkModel)
+	{
+		this.networkModel = networkModel;
+	}
+
+	private static int[] filled(int length)
+	{
+		int[] a = new int[length];
+		Arrays.fill(a, -1);
+		return a;
+	}
+
+	private static int[] grow(int[] a, int minLength, int fill)
+	{
+		int length = Math.max(a.length*2, minLength);
+		int old = a.length;
+		a = Arrays.copyOf(a, length);
+		Arrays.fill(a, old, length, fill);
+		return a;
+	}
+
+	/**
+	 * @return the number of nodes in the store
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return one more than the largest id handed out so far
+	 */
+	public int idLimit()
+	{
+		return this.nextId;
+	}
+
+	/**
+	 * Appends a node.
+	 * @param wantedId the id to reuse if it is free, as when an undone node is
+	 * 	added back; -1 for a new id
+	 * @return the id of the node
+	 */
+	public int add(String name, double x, double y, int wantedId)
+	{
+		int id = wantedId;
+		if (id < 0 || id >= this.nextId || this.positions[id] >= 0)
+		{
+			id = this.nextId++;
+			if (id >= this.positions.length)
+			{
+				this.positions = grow(this.positions, id+1, -1);
+				this.nextSameName = grow(this.nextSameName, id+1, -1);
+				this.prevSameName = grow(this.prevSameName, id+1, -1);
+			}
+		}
+
+		int pos = this.size++;
+		if (pos >= this.xs.length)
+		{
+			int length = this.xs.length*2;
+			this.xs = Arrays.copyOf(this.xs, length);
+			this.ys = Arrays.copyOf(this.ys, length);
+			this.nameRefs = Arrays.copyOf(this.nameRefs, length);
+			this.ids = Arrays.copyOf(this.ids, length);
+			this.views = Arrays.copyOf(this.views, length);
+		}
+
+		int ref = acquireName(name);
+		this.xs[pos] = x;
+		this.ys[pos] = y;
+		this.nameRefs[pos] = ref;
+		this.ids[pos] = id;
+		this.views[pos] = null;
+		this.positions[id] = pos;
+		linkName(id, ref);
+		return id;
+	}
+
+	/**
+	 * Removes the node at pos.  A NetworkNode viewing it is detached and keeps
+	 * a copy of the node's name and location.
+	 */
+	public void remove(int pos)
+	{
+		if (pos < 0 || pos >= this.size)
+			throw new IndexOutOfBoundsException("Index: "+pos+", Size: "+this.size);
+
+		unshare();
+		int id = this.ids[pos];
+		int ref = this.nameRefs[pos];
+		if (this.views[pos] != null)
+			this.views[pos].detach(this.names.get(ref), this.xs[pos], this.ys[pos]);
+		unlinkName(id, ref);
+		this.names.release(ref);
+		this.positions[id] = -1;
+
+		int tail = this.size-pos-1;
+		System.arraycopy(this.xs, pos+1, this.xs, pos, tail);
+		System.arraycopy(this.ys, pos+1, this.ys, pos, tail);
+		System.arraycopy(this.nameRefs, pos+1, this.nameRefs, pos, tail);
+		System.arraycopy(this.ids, pos+1, this.ids, pos, tail);
+		System.arraycopy(this.views, pos+1, this.views, pos, tail);
+		this.size--;
+		this.views[this.size] = null;
+		for (int i=pos; i<this.size; i++)
+			this.positions[this.ids[i]] = i;
+	}
+
+	/**
+	 * @return the position of the node with this id, or -1 if it is not in the store
+	 */
+	public int positionOf(int id)
+	{
+		if (id < 0 || id >= this.nextId)
+			return -1;
+		return this.positions[id];
+	}
+
+	public int getId(int pos)
+	{
+		checkPosition(pos);
+		return this.ids[pos];
+	}
+
+	public double getX(int pos)
+	{
+		checkPosition(pos);
+		return this.xs[pos];
+	}
+
+	public double getY(int pos)
+	{
+		checkPosition(pos);
+		return this.ys[pos];
+	}
+
+	public String getName(int pos)
+	{
+		checkPosition(pos);
+		return this.names.get(this.nameRefs[pos]);
+	}
+
+	private void checkPosition(int pos)
+	{
+		if (pos < 0 || pos >= this.size)
+			throw new IndexOutOfBoundsException("Index: "+pos+", Size: "+this.size);
+	}
+
+	/**
+	 * @return the columns as they are now, for a snapshot to read on any thread
+	 */
+	public Columns share()
+	{
+		this.shared = true;
+		return new Columns(this);
+	}
+
+	/**
+	 * Copies any columns shared with a snapshot, before they are changed
+	 */
+	private void unshare()
+	{
+		if (!this.shared)
+			return;
+		this.xs = this.xs.clone();
+		this.ys = this.ys.clone();
+		this.nameRefs = this.nameRefs.clone();
+		this.positions = this.positions.clone();
+		this.shared = false;
+	}
+
+	public void setLocation(int pos, double x, double y)
+	{
+		checkPosition(pos);
+		unshare();
+		this.xs[pos] = x;
+		this.ys[pos] = y;
+	}
+
+	public void setName(int pos, String name)
+	{
+		checkPosition(pos);
+		unshare();
+		int id = this.ids[pos];
+		int oldRef = this.nameRefs[pos];
+		int ref = acquireName(name);
+		unlinkName(id, oldRef);
+		this.names.release(oldRef);
+		this.nameRefs[pos] = ref;
+		linkName(id, ref);
+	}
+
+	/**
+	 * @return the NetworkNode for the node at pos, creating it on first use
+	 */
+	public NetworkNode getView(int pos)
+	{
+		checkPosition(pos);
+		NetworkNode n = this.views[pos];
+		if (n == null)
+		{
+			n = new NetworkNode(this.networkModel, this, this.ids[pos]);
+			this.views[pos] = n;
+		}
+		return n;
+	}
+
+	/**
+	 * Makes n the NetworkNode for the node at pos.
+	 */
+	public void setView(int pos, NetworkNode n)
+	{
+		checkPosition(pos);
+		this.views[pos] = n;
+	}
+
+	/**
+	 * @return the id of the first node in node order called name, or -1 if there
+	 * 	is none
+	 */
+	public int firstIdNamed(String name)
+	{
+		int ref = this.names.find(name);
+		return (ref < 0) ? -1 : this.firstByName[ref];
+	}
+
+	/**
+	 * @return the number of distinct node names
+	 */
+	public int nNames()
+	{
+		return this.names.size();
+	}
+
+	private int acquireName(String name)
+	{
+		int ref = this.names.acquire(name);
+		if (ref >= this.firstByName.length)
+		{
+			this.firstByName = grow(this.firstByName, ref+1, -1);
+			this.lastByName = grow(this.lastByName, ref+1, -1);
+		}
+		return ref;
+	}
+
+	/**
+	 * Puts id in the chain of ids that share the name ref, which is kept in node
+	 * order.  Removing nodes keeps the order of the rest, and added nodes go at the
+	 * end, so only a renamed node has to look for its place.
+	 */
+	private void linkName(int id, int ref)
+	{
+		int pos = this.positions[id];
+		int prev = this.lastByName[ref];
+		while (prev >= 0 && this.positions[prev] > pos)
+			prev = this.prevSameName[prev];
+
+		int next = (prev < 0) ? this.firstByName[ref] : this.nextSameName[prev];
+		this.prevSameName[id] = prev;
+		this.nextSameName[id] = next;
+		if (prev < 0)
+			this.firstByName[ref] = id;
+		else
+			this.nextSameName[prev] = id;
+		if (next < 0)
+			this.lastByName[ref] = id;
+		else
+			this.prevSameName[next] = id;
+	}
+
+	private void unlinkName(int id, int ref)
+	{
+		int prev = this.prevSameName[id];
+		int next = this.nextSameName[id];
+		if (prev < 0)
+			this.firstByName[ref] = next;
+		else
+			this.nextSameName[prev] = next;
+		if (next < 0)
+			this.lastByName[ref] = prev;
+		else
+			this.prevSameName[next] = prev;
+		this.prevSameName[id] = -1;
+		this.nextSameName[id] = -1;
+	}
+}
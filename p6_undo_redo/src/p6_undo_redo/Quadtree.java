@@ -0,0 +1,329 @@
+package p6_undo_redo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An index of ids by bounding rectangle, for finding what lies at or near a point
+ * without looking at everything.
+ *
+ * Each entry is kept in the smallest square cell that holds the whole of its
+ * rectangle, so an entry is found by visiting only the cells that overlap the
+ * area searched: O(log n + k) for k matches when entries are spread out.  A cell
+ * holding more than CAPACITY entries is split into quarters.  The root grows to
+ * take in entries placed outside it, so no extent need be known in advance.
+ * Entries can be added, moved and removed one at a time.
+ */
+class Quadtree
+{
+	static final int CAPACITY = 8;
+
+	/**
+	 * Cells this deep below the root they were made under are never split, so
+	 * that many entries at one point do not split cells forever
+	 */
+	private static final int MAX_DEPTH = 32;
+
+	private static class Entry
+	{
+		int id;
+		double x1;
+		double y1;
+		double x2;
+		double y2;
+
+		boolean intersects(double qx1, double qy1, double qx2, double qy2)
+		{
+			return this.x1 <= qx2 && this.x2 >= qx1 && this.y1 <= qy2 && this.y2 >= qy1;
+		}
+	}
+
+	private static class Cell
+	{
+		double x;
+		double y;
+		double size;
+		int depth;
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		Cell[] children;
+
+		Cell(double x, double y, double size, int depth)
+		{
+			this.x = x;
+			this.y = y;
+			this.size = size;
+			this.depth = depth;
+		}
+
+		boolean contains(Entry e)
+		{
+			return e.x1 >= this.x && e.x2 <= this.x+this.size && e.y1 >= this.y && e.y2 <= this.y+this.size;
+		}
+
+		boolean intersects(double qx1, double qy1, double qx2, double qy2)
+		{
+			return this.x <= qx2 && this.x+this.size >= qx1 && this.y <= qy2 && this.y+this.size >= qy1;
+		}
+
+		/**
+		 * @return the quarter that holds all of e, or null if none does
+		 */
+		Cell childContaining(Entry e)
+		{
+			for (Cell c : this.children)
+			{
+				if (c.contains(e))
+					return c;
+			}
+			return null;
+		}
+
+		void split()
+		{
+			double half = this.size/2;
+			this.children = new Cell[] {
+				new Cell(this.x, this.y, half, this.depth+1),
+				new Cell(this.x+half, this.y, half, this.depth+1),
+				new Cell(this.x, this.y+half, half, this.depth+1),
+				new Cell(this.x+half, this.y+half, half, this.depth+1)
+			};
+			ArrayList<Entry> staying = new ArrayList<Entry>();
+			for (Entry e : this.entries)
+			{
+				Cell c = childContaining(e);
+				if (c != null)
+					c.entries.add(e);
+				else
+					staying.add(e);
+			}
+			this.entries = staying;
+		}
+	}
+
+	private HashMap<Integer, Entry> byId = new HashMap<Integer, Entry>();
+	private Cell root;
+
+	//Entries whose rectangles are not finite, which no cell can hold
+	private ArrayList<Entry> unplaced = new ArrayList<Entry>();
+
+	int size()
+	{
+		return this.byId.size();
+	}
+
+	void clear()
+	{
+		this.byId.clear();
+		this.unplaced.clear();
+		this.root = null;
+	}
+
+	/**
+	 * Adds id with the rectangle from (x1,y1) to (x2,y2), replacing any rectangle
+	 * it already has
+	 */
+	void put(int id, double x1, double y1, double x2, double y2)
+	{
+		remove(id);
+		Entry e = new Entry();
+		e.id = id;
+		e.x1 = x1;
+		e.y1 = y1;
+		e.x2 = x2;
+		e.y2 = y2;
+		this.byId.put(id, e);
+
+		if (!isFinite(x1) || !isFinite(y1) || !isFinite(x2) || !isFinite(y2))
+		{
+			this.unplaced.add(e);
+			return;
+		}
+		if (this.root == null)
+			this.root = new Cell(x1, y1, Math.max(Math.max(x2-x1, y2-y1), 1), 0);
+		while (!this.root.contains(e))
+			grow(e);
+		insert(this.root, e);
+	}
+
+	/**
+	 * Removes id, if it is here
+	 */
+	void remove(int id)
+	{
+		Entry e = this.byId.remove(id);
+		if (e == null)
+			return;
+		if (this.unplaced.remove(e))
+			return;
+		remove(this.root, e);
+	}
+
+	private static boolean remove(Cell c, Entry e)
+	{
+		if (c.entries.remove(e))
+			return true;
+		if (c.children == null)
+			return false;
+		//An entry on the line between two quarters fits both, so try each
+		for (Cell child : c.children)
+		{
+			if (child.contains(e) && remove(child, e))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the ids whose rectangles overlap or touch the rectangle from (x1,y1)
+	 * 	to (x2,y2), in no particular order
+	 */
+	ArrayList<Integer> query(double x1, double y1, double x2, double y2)
+	{
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		if (this.root != null)
+			query(this.root, x1, y1, x2, y2, result);
+		for (Entry e : this.unplaced)
+		{
+			if (e.intersects(x1, y1, x2, y2))
+				result.add(e.id);
+		}
+		return result;
+	}
+
+	private void query(Cell c, double x1, double y1, double x2, double y2, ArrayList<Integer> result)
+	{
+		for (Entry e : c.entries)
+		{
+			if (e.intersects(x1, y1, x2, y2))
+				result.add(e.id);
+		}
+		if (c.children == null)
+			return;
+		for (Cell child : c.children)
+		{
+			if (child.intersects(x1, y1, x2, y2))
+				query(child, x1, y1, x2, y2, result);
+		}
+	}
+
+	private void insert(Cell c, Entry e)
+	{
+		while (c.children != null)
+		{
+			Cell child = c.childContaining(e);
+			if (child == null)
+				break;
+			c = child;
+		}
+		c.entries.add(e);
+		if (c.children == null && c.entries.size() > CAPACITY && c.depth < MAX_DEPTH)
+			c.split();
+	}
+
+	/**
+	 * Doubles the root, keeping the old root as the quarter furthest from e
+	 */
+	private void grow(Entry e)
+	{
+		Cell old = this.root;
+		boolean left = e.x1 < old.x;
+		boolean up = e.y1 < old.y;
+		double x = left ? old.x-old.size : old.x;
+		double y = up ? old.y-old.size : old.y;
+		Cell grown = new Cell(x, y, old.size*2, 0);
+		grown.split();
+		grown.children[(up ? 2 : 0)+(left ? 1 : 0)] = old;
+		this.root = grown;
+	}
+
+	private static boolean isFinite(double d)
+	{
+		return !Double.isNaN(d) && !Double.isInfinite(d);
+	}
+
+	/**
+	* Test routine to check the quadtree against a scan of every rectangle.
+	* Nothing else should appear on a correct test.
+	**/
+	public static void Test()
+	{
+		boolean result = true;
+		System.out.println("testing Quadtree");
+		
+		result &= testQuery();
+		
+		if (result)
+			System.out.println("Quadtree OK");
+	}
+	
+	private static boolean testQuery()
+	{
+		boolean result = true;
+		
+		//Rectangles on a grid of whole and half units, so that many edges lie on
+		//the lines between cells, with some points, some far away, and some that
+		//are not finite
+		Random random = new Random(1);
+		Quadtree tree = new Quadtree();
+		HashMap<Integer, double[]> rects = new HashMap<Integer, double[]>();
+		for (int step=0; step<20000; step++)
+		{
+			int id = random.nextInt(500);
+			int op = random.nextInt(10);
+			if (op < 3)
+			{
+				tree.remove(id);
+				rects.remove(id);
+			}
+			else
+			{
+				double[] r = randomRect(random);
+				tree.put(id, r[0], r[1], r[2], r[3]);
+				rects.put(id, r);
+			}
+			
+			double[] q = randomRect(random);
+			HashSet<Integer> expected = new HashSet<Integer>();
+			for (Map.Entry<Integer, double[]> e : rects.entrySet())
+			{
+				double[] r = e.getValue();
+				if (r[0] <= q[2] && r[2] >= q[0] && r[1] <= q[3] && r[3] >= q[1])
+					expected.add(e.getKey());
+			}
+			ArrayList<Integer> found = tree.query(q[0], q[1], q[2], q[3]);
+			if (tree.size() != rects.size() || found.size() != expected.size() || !expected.equals(new HashSet<Integer>(found)))
+			{
+				System.out.println("Failed: query after "+step+" steps found "+found+", should be "+expected);
+				result = false;
+				break;
+			}
+		}
+		
+		tree.clear();
+		if (tree.size() != 0 || !tree.query(-1e9, -1e9, 1e9, 1e9).isEmpty())
+		{
+			System.out.println("Failed: clear");
+			result = false;
+		}
+		
+		return result;
+	}
+	
+	private static double[] randomRect(Random random)
+	{
+		int kind = random.nextInt(20);
+		if (kind == 0)
+			return new double[] { Double.NaN, 0, 1, 1 };
+		if (kind == 1)
+			return new double[] { 0, 0, Double.POSITIVE_INFINITY, 1 };
+		double scale = (kind == 2) ? 1000 : 1;
+		double x = (random.nextInt(64)-32)*scale/2;
+		double y = (random.nextInt(64)-32)*scale/2;
+		if (kind < 6)
+			return new double[] { x, y, x, y };
+		return new double[] { x, y, x+random.nextInt(8)/2.0, y+random.nextInt(8)/2.0 };
+	}
+}
@@ -0,0 +1,120 @@
+package p6_undo_redo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A table of distinct strings, each identified by a small integer reference.
+ * References are counted so that a string nobody uses any more is dropped
+ * and its slot handed out again.
+ *
+ * The strings can be shared with a snapshot, which then sees them as they were
+ * when shared.  A slot the snapshot may read is only cleared after copying them.
+ */
+class StringTable
+{
+	private String[] strings = new String[16];
+	private int nStrings;
+	private boolean shared;
+	private HashMap<String, Integer> refs = new HashMap<String, Integer>();
+	private int[] counts = new int[16];
+	private int[] freeRefs = new int[16];
+	private int nFree;
+
+	/**
+	 * Adds a use of s to the table.
+	 * @return the reference for s
+	 */
+	public int acquire(String s)
+	{
+		Integer r = this.refs.get(s);
+		if (r != null)
+		{
+			this.counts[r]++;
+			return r;
+		}
+
+		int ref;
+		//A free slot or a new one, neither of which a snapshot can be reading
+		if (this.nFree > 0)
+			ref = this.freeRefs[--this.nFree];
+		else
+		{
+			ref = this.nStrings++;
+			if (ref >= this.strings.length)
+			{
+				this.strings = Arrays.copyOf(this.strings, this.strings.length*2);
+				this.shared = false;
+			}
+			if (ref >= this.counts.length)
+				this.counts = Arrays.copyOf(this.counts, this.counts.length*2);
+		}
+		this.strings[ref] = s;
+		this.refs.put(s, ref);
+		this.counts[ref] = 1;
+		return ref;
+	}
+
+	/**
+	 * Drops a use of the string with reference ref.  The string is removed once
+	 * it has no uses left.
+	 */
+	public void release(int ref)
+	{
+		if (--this.counts[ref] > 0)
+			return;
+		if (this.shared)
+		{
+			this.strings = this.strings.clone();
+			this.shared = false;
+		}
+		this.refs.remove(this.strings[ref]);
+		this.strings[ref] = null;
+		if (this.nFree >= this.freeRefs.length)
+			this.freeRefs = Arrays.copyOf(this.freeRefs, this.freeRefs.length*2);
+		this.freeRefs[this.nFree++] = ref;
+	}
+
+	/**
+	 * @return the string with reference ref
+	 */
+	public String get(int ref)
+	{
+		return this.strings[ref];
+	}
+
+	/**
+	 * @return the strings by reference, to be read but not changed.  They stay as
+	 * 	they are now, however the table changes.
+	 */
+	public String[] share()
+	{
+		this.shared = true;
+		return this.strings;
+	}
+
+	/**
+	 * @return the reference for s, or -1 if s is not in the table
+	 */
+	public int find(String s)
+	{
+		Integer r = this.refs.get(s);
+		return (r == null) ? -1 : r;
+	}
+
+	/**
+	 * @return one more than the largest reference handed out so far
+	 */
+	public int capacity()
+	{
+		return this.nStrings;
+	}
+
+	/**
+	 * @return the number of distinct strings in the table
+	 */
+	public int size()
+	{
+		return this.refs.size();
+	}
+}